@@ -0,0 +1,95 @@
+package info.danbecker.pdfcl;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Deterministic fixtures for the benchmarks.
+ * 
+ * Images and PDFs are generated from fixed seeds, so every run measures the same bytes.
+ * 
+ * @author <a href="mailto://dan@danbecker.info">Dan Becker</a>
+ */
+public class Fixtures {
+    public static final long SEED = 0x5EEDL;
+
+    /** 
+     * An image with a solid border around random content blocks.
+     * @param width image width
+     * @param height image height
+     * @param border border width in pixels on each side
+     * @param seed random seed for the content
+     */
+    public static BufferedImage image( int width, int height, int border, long seed ) {
+        Random random = new Random( seed );
+        BufferedImage image = new BufferedImage( width, height, BufferedImage.TYPE_INT_RGB );
+        Graphics2D g = image.createGraphics();
+        g.setColor( Color.WHITE );
+        g.fillRect( 0, 0, width, height );
+        int innerWidth = width - 2 * border;
+        int innerHeight = height - 2 * border;
+        if ( innerWidth > 0 && innerHeight > 0 ) {
+            for ( int i = 0; i < 64; i++ ) {
+                g.setColor( new Color( random.nextInt( 0xFFFFFF )));
+                int x = border + random.nextInt( innerWidth );
+                int y = border + random.nextInt( innerHeight );
+                g.fillRect( x, y, 1 + random.nextInt( border + innerWidth - x ), 1 + random.nextInt( border + innerHeight - y ));
+            }
+            // Pin the content box corners so the crop box is known.
+            g.setColor( Color.BLACK );
+            g.fillRect( border, border, 1, 1 );
+            g.fillRect( width - border - 1, height - border - 1, 1, 1 );
+        }
+        g.dispose();
+        return image;
+    }
+
+    /** Writes count images named img0001.png and so on into dir. PNG is lossless, so the pinned corners survive. */
+    public static File images( File dir, int count, int width, int height, int border ) throws IOException {
+        dir.mkdirs();
+        for ( int i = 1; i <= count; i++ ) {
+            File file = new File( dir, String.format( "img%04d.png", i ));
+            ImageIO.write( image( width, height, border, SEED + i ), "png", file );
+        }
+        return dir;
+    }
+
+    /** A text PDF of the given number of pages, via createPdf. */
+    public static File textPdf( File dir, int pages ) throws IOException {
+        File file = new File( dir, "text" + pages + ".pdf" );
+        new PdfCL().createPdf( file.getPath(), pages );
+        return file;
+    }
+
+    /** A PDF of one image per page, via joinImages. */
+    public static File imagePdf( File dir, int pages, int width, int height, int border ) throws Exception {
+        File imageDir = images( new File( dir, "images" + pages ), pages, width, height, border );
+        File file = new File( dir, "images" + pages + ".pdf" );
+        new PdfCL().joinImages( new String[] { imageDir.getPath() }, file.getPath() );
+        return file;
+    }
+
+    public static File tempDir() throws IOException {
+        return Files.createTempDirectory( "pdfcl-bench" ).toFile();
+    }
+
+    /** Deletes the directory and everything in it. */
+    public static void delete( File dir ) throws IOException {
+        if ( null == dir || !dir.exists() ) {
+            return;
+        }
+        try ( Stream<Path> paths = Files.walk( dir.toPath() )) {
+            paths.sorted( Comparator.reverseOrder() ).map( Path::toFile ).forEach( File::delete );
+        }
+    }
+}
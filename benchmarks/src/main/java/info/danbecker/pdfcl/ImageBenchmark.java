@@ -0,0 +1,86 @@
+package info.danbecker.pdfcl;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks the autoCrop kernel: getCroppedImage, calculateBaseColor, colorDistance,
+ * and the file to file autoCrop including decode and encode.
+ * 
+ * @author <a href="mailto://dan@danbecker.info">Dan Becker</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageBenchmark {
+    @Param({"512", "2048"})
+    public int size;
+
+    @Param({"0", "64"})
+    public int border;
+
+    private BufferedImage image;
+    private File dir;
+    private File imageFile;
+    private int[] pixels;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        image = Fixtures.image( size, size * 3 / 4, border, Fixtures.SEED );
+        pixels = image.getRGB( 0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth() );
+        dir = Fixtures.tempDir();
+        // PNG is lossless, so the pinned corners and the border color survive the round trip.
+        imageFile = new File( dir, "image.png" );
+        ImageIO.write( image, "png", imageFile );
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Fixtures.delete( dir );
+    }
+
+    @Benchmark
+    public BufferedImage getCroppedImage() throws IOException {
+        return Image.getCroppedImage( image, -2, 0.10 );
+    }
+
+    @Benchmark
+    public int calculateBaseColor() {
+        return Image.calculateBaseColor( image );
+    }
+
+    @Benchmark
+    public void colorDistance( Blackhole blackhole ) {
+        int base = pixels[ 0 ];
+        for ( int pixel : pixels ) {
+            blackhole.consume( Image.colorDistance( base, pixel ));
+        }
+    }
+
+    @Benchmark
+    public void autoCrop() throws IOException {
+        Image.autoCrop( imageFile, dir, null, 0.10f );
+    }
+}
@@ -0,0 +1,89 @@
+package info.danbecker.pdfcl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfReader;
+
+/**
+ * Benchmarks the PdfCL image verbs against a generated PDF of one image per page.
+ *
+ * Outputs are overwritten in place, so every invocation writes the same files.
+ *
+ * @author <a href="mailto://dan@danbecker.info">Dan Becker</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImagePdfBenchmark {
+    /** Pages of the image PDF, kept small since each page holds a full image. */
+    @Param({"10"})
+    public int imagePages;
+
+    private File dir;
+    private File imagePdf;
+    private File imageDir;
+    private File outPdf;
+    private File outDir;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dir = Fixtures.tempDir();
+        imagePdf = Fixtures.imagePdf( dir, imagePages, 1200, 900, 48 );
+        imageDir = new File( dir, "images" + imagePages );
+        outPdf = new File( dir, "out.pdf" );
+        outDir = new File( dir, "out" );
+        outDir.mkdirs();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Fixtures.delete( dir );
+    }
+
+    @Benchmark
+    public void splitImages() throws IOException {
+        new PdfCL().splitImages( new String[] { imagePdf.getPath() }, outDir.getPath(), null );
+    }
+
+    @Benchmark
+    public void joinImages() throws Exception {
+        new PdfCL().joinImages( new String[] { imageDir.getPath() }, outPdf.getPath() );
+    }
+
+    @Benchmark
+    public boolean visit() throws IOException {
+        try ( PdfDocument pdfDoc = new PdfDocument( new PdfReader( imagePdf ))) {
+            return new PdfTreeWalker().walk( pdfDoc, PdfCL::visit );
+        }
+    }
+
+    @Benchmark
+    public void pdfTree() throws IOException {
+        new PdfCL().pdfTree( new String[] { imagePdf.getPath() }, outDir.getPath() );
+    }
+
+    @Benchmark
+    public PdfStats.FileStats stats() {
+        return PdfStats.fileStats( imagePdf );
+    }
+}
@@ -0,0 +1,85 @@
+package info.danbecker.pdfcl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the PdfCL text verbs against generated PDFs of a varying number of pages.
+ * The image verbs are in ImagePdfBenchmark, so their fixture is not rebuilt for each page count.
+ *
+ * appendPdf preserves and grows an existing destination, so the append benchmarks delete it first.
+ *
+ * @author <a href="mailto://dan@danbecker.info">Dan Becker</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PdfCLBenchmark {
+    @Param({"10", "1000"})
+    public int pages;
+
+    private File dir;
+    private File textPdf;
+    private File outPdf;
+    private File outDir;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dir = Fixtures.tempDir();
+        textPdf = Fixtures.textPdf( dir, pages );
+        outPdf = new File( dir, "out.pdf" );
+        outDir = new File( dir, "out" );
+        outDir.mkdirs();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Fixtures.delete( dir );
+    }
+
+    @Benchmark
+    public void createPdf() throws IOException {
+        new PdfCL().createPdf( outPdf.getPath(), pages );
+    }
+
+    @Benchmark
+    public void concatenatePdf() throws IOException {
+        new PdfCL().concatenatePdf( new String[] { textPdf.getPath(), textPdf.getPath() }, outPdf.getPath() );
+    }
+
+    @Benchmark
+    public void appendPdf() throws IOException {
+        outPdf.delete();
+        new PdfCL().appendPdf( new String[] { textPdf.getPath() }, outPdf.getPath(), null );
+    }
+
+    @Benchmark
+    public void appendPdfPages() throws IOException {
+        outPdf.delete();
+        new PdfCL().appendPdf( new String[] { textPdf.getPath() }, outPdf.getPath(), Arrays.asList( 1, 2, 3 ));
+    }
+
+    @Benchmark
+    public void pdfTree() throws IOException {
+        new PdfCL().pdfTree( new String[] { textPdf.getPath() }, outDir.getPath() );
+    }
+}
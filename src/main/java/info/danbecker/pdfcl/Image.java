@@ -1,13 +1,23 @@
 package info.danbecker.pdfcl;
 
+import java.awt.Dimension;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,6 +44,21 @@ public class Image {
      * @throws IOException
      */
     public static void autoCrop(String[] srcs, String dest, String baseColorARGB, String number ) throws IOException {
+        autoCrop(srcs, dest, baseColorARGB, number, new SourceFinder(SourceFinder.Content.IMAGE), false);
+    }
+
+    /** 
+     * Takes the image files found by the finder, auto crops them, and places them in dest.
+     * Files found in subdirectories are placed in the same subdirectories of dest.
+     * @param srcs
+     * @param dest
+     * @param number is tolerance expressed as a float percentage, for example 0.05
+     * @param finder
+     * @param incremental keep a manifest in dest and only crop changed or new sources
+     * @throws IOException
+     */
+    public static void autoCrop(String[] srcs, String dest, String baseColorARGB, String number, SourceFinder finder,
+        boolean incremental ) throws IOException {
         // Treat dest as a path and make dirs
         File destFile = new File(dest);
         destFile.mkdirs();
@@ -44,63 +69,93 @@ public class Image {
             tolerance = Float.parseFloat(number);
         }
 
+        JobManifest manifest = incremental ? JobManifest.load(dest, "autoCrop color=" + baseColorARGB + " tolerance=" + tolerance) : null;
+
         // Copy 
-        for (String src : srcs) {
-            File srcFile = new File ( src );
-            if ( srcFile.canRead() ) {
-                if ( srcFile.isDirectory() ) {
-                    ArrayList<File> srcFiles = new ArrayList<File>(Arrays.asList(srcFile.listFiles()));
-                    for ( File oneFile : srcFiles ) {
-                        autoCrop( oneFile, destFile, baseColorARGB, tolerance );                        
-                    }
-                } else {
-                    autoCrop( srcFile, destFile, baseColorARGB, tolerance );
-                }                
-            } else {
-                LOGGER.info("File \"" + srcFile + "\" exists=" + srcFile.exists() + ", canRead=" + srcFile.canRead() + ", length="
-                        + srcFile.length());
+        final float finalTolerance = tolerance;
+        // Recorded once the outputs are written.
+        Map<Path,List<Path>> produced = new LinkedHashMap<>();
+        finder.forEach(srcs, (root, srcFile) -> {
+            if ( null != manifest && manifest.upToDate( srcFile )) {
+                LOGGER.info("Input image \"" + srcFile + "\" is up to date");
+                return;
+            }
+            File outputDir = destFile;
+            Path parent = srcFile.getParent();
+            if ( !root.equals( srcFile ) && null != parent && !root.equals( parent )) {
+                outputDir = destFile.toPath().resolve( root.relativize( parent )).toFile();
+                outputDir.mkdirs();
+            }
+            Path output;
+            try {
+                output = autoCrop( srcFile.toFile(), outputDir, baseColorARGB, finalTolerance );
+            } catch (IOException | RuntimeException e) {
+                // Not recorded, so the next incremental run retries it.
+                LOGGER.error("Input image \"" + srcFile + "\" cannot be cropped e=" + e);
+                return;
             }
-        } // srcs
+            if ( null != manifest ) {
+                produced.put( srcFile, null == output ? Collections.<Path>emptyList() : Collections.singletonList( output ));
+            }
+        }); // srcs
+        if ( null != manifest ) {
+            manifest.recordWritten( produced, OutputStage.flush() );
+            manifest.removeStale( srcs );
+            manifest.save();
+        }
     }
 
     /** 
      * Takes one source files, auto crops, and places in dest file.
+     * The decode is admitted against the memory budget. Images too large for the budget are
+     * scanned subsampled and only their content region is decoded, or skipped if that is still too large.
      * @param srcs
      * @param dest
+     * @return the output written, or null for no adjustments
      * @throws IOException
      */
-    public static void autoCrop(File srcFile, File destFile, String baseColorString, float tolerance ) throws IOException {
+    @SuppressWarnings("try") // reservations are held for their scope only
+    public static Path autoCrop(File srcFile, File destFile, String baseColorString, float tolerance ) throws IOException {
         if (srcFile.exists() && srcFile.isFile() && srcFile.canRead()) {
-            BufferedImage in = ImageIO.read(srcFile);
-            LOGGER.info("Input image \"" + srcFile.getName() + "\" size=" + in.getWidth() + "x" + in.getHeight() + ", type=" + in.getType());
-
             Path outputPath = null;
             if ( destFile.isDirectory() ) {
                 // Put string in between file name and extension.
+                // Sniffed files may have no extension, and are written as jpg.
                 String srcName = srcFile.getName();
-                String [] srcNameParts = srcName.split( "\\.");
-                outputPath = Paths.get(destFile.toString(), srcNameParts[ 0 ] + "-c." + srcNameParts[1]  );
+                int dot = srcName.lastIndexOf( '.' );
+                String baseName = dot > 0 ? srcName.substring( 0, dot ) : srcName;
+                String extension = dot > 0 ? srcName.substring( dot + 1 ) : "jpg";
+                outputPath = Paths.get(destFile.toString(), baseName + "-c." + extension );
             } else {
                 outputPath = Paths.get(destFile.toString());
             }
 
-            int baseColor = -2;
-            if ( null != baseColorString ) {
-                String [] components = baseColorString.split("\\,");
-                if ( components.length == 3 ) {
-                    baseColor = argbInt(null, components[0], components[1], components[2]);                    
-                } else if (components.length == 4){
-                    baseColor = argbInt(components[0], components[1], components[2], components[3]);                    
-                } else {
-                    throw new IllegalArgumentException( "base color \"" + baseColorString + "\" is illegal");
+            int baseColor = null == baseColorString ? -2 : argbInt( baseColorString );
+
+            Dimension size = size( srcFile );
+            LOGGER.info("Input image \"" + srcFile.getName() + "\" size=" + size.width + "x" + size.height );
+            // The source and the cropped copy are held at once.
+            long bytes = 2 * MemoryBudget.imageBytes( size.width, size.height );
+            MemoryBudget budget = MemoryBudget.global();
+            byte[] encoded = null;
+            if ( budget.fits( bytes )) {
+                try (MemoryBudget.Reservation reservation = budget.reserve( bytes )) {
+                    BufferedImage in;
+                    try (Metrics.Timer timer = Metrics.time("autoCrop.decode")) {
+                        timer.bytes(PdfCL.read(srcFile.getPath()));
+                        in = read( srcFile, null, 1 );
+                        Metrics.increment(Metrics.Counter.IMAGES_DECODED);
+                    }
+                    BufferedImage out = Metrics.time("autoCrop.scan", () -> getCroppedImage( in, baseColor, tolerance ));
+                    encoded = encode( out, outputPath );
                 }
+            } else {
+                encoded = autoCropLarge( srcFile, size, outputPath, baseColor, tolerance, budget );
             }
             
-            BufferedImage out = getCroppedImage( in, baseColor, tolerance );
-            
-            if ( null != out ) {
-                LOGGER.info("Output image \"" + outputPath.toFile().getName() + "\" size=" + out.getWidth() + "x" + out.getHeight() + ", type=" + out.getType());
-                ImageIO.write(out, "jpg", outputPath.toFile());
+            if ( null != encoded ) {
+                OutputStage.write(outputPath, encoded);
+                return outputPath;
             } else {
                 LOGGER.info( "Input image \"" + srcFile.getName() + "\" no adjustments" );                
             }
@@ -108,6 +163,120 @@ public class Image {
             LOGGER.info("File \"" + srcFile + "\" exists=" + srcFile.exists() + ", canRead=" + srcFile.canRead()
                     + ", length=" + srcFile.length());
         }            
+        return null;
+    }
+
+    /**
+     * Crops an image too large to decode within the memory budget.
+     * The content is found on a subsampled decode, and then only the content region is decoded and cropped.
+     * @return the encoded output, or null for no adjustments or an image which cannot fit the budget
+     */
+    @SuppressWarnings("try") // reservations are held for their scope only
+    protected static byte[] autoCropLarge(File srcFile, Dimension size, Path outputPath, int baseColor, float tolerance,
+        MemoryBudget budget) throws IOException {
+        long bytes = MemoryBudget.imageBytes( size.width, size.height );
+        int subsample = budget.subsample( bytes, 2 );
+        Rectangle box;
+        int color;
+        try (MemoryBudget.Reservation reservation = budget.reserve( bytes / ((long) subsample * subsample))) {
+            BufferedImage sample;
+            try (Metrics.Timer timer = Metrics.time("autoCrop.decode")) {
+                timer.bytes(PdfCL.read(srcFile.getPath()));
+                sample = read( srcFile, null, subsample );
+                Metrics.increment(Metrics.Counter.IMAGES_DECODED);
+            }
+            LOGGER.info("Input image \"" + srcFile.getName() + "\" exceeds memory budget, subsample=" + subsample );
+            // Vote on the corners of the whole image, as the content region may not reach them.
+            color = -2 == baseColor ? calculateBaseColor( sample ) : baseColor;
+            box = Metrics.time("autoCrop.scan", () -> getCropBox( sample, color, tolerance ));
+        }
+        if ( null == box ) {
+            return null;
+        }
+        // The border may lie anywhere in the skipped pixels, so keep one more sample on each side.
+        Rectangle region = new Rectangle( (box.x - 1) * subsample, (box.y - 1) * subsample,
+            (box.width + 2) * subsample, (box.height + 2) * subsample ).intersection( new Rectangle( size ));
+        long regionBytes = 2 * MemoryBudget.imageBytes( region.width, region.height );
+        if ( !budget.fits( regionBytes )) {
+            LOGGER.error( "Input image \"" + srcFile.getName() + "\" content " + region.width + "x" + region.height
+                + " exceeds memory budget " + budget.getTotal() + ", skipped" );
+            return null;
+        }
+        try (MemoryBudget.Reservation reservation = budget.reserve( regionBytes )) {
+            BufferedImage in = Metrics.time("autoCrop.decode", () -> read( srcFile, region, 1 ));
+            Metrics.increment(Metrics.Counter.IMAGES_DECODED);
+            BufferedImage out = Metrics.time("autoCrop.scan", () -> getCroppedImage( in, color, tolerance ));
+            return encode( null == out ? in : out, outputPath );
+        }
+    }
+
+    /** Encodes the output as jpg, or returns null for no output. */
+    protected static byte[] encode( BufferedImage out, Path outputPath ) throws IOException {
+        if ( null == out ) {
+            return null;
+        }
+        LOGGER.info("Output image \"" + outputPath.toFile().getName() + "\" size=" + out.getWidth() + "x" + out.getHeight() + ", type=" + out.getType());
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream( PdfCL.OUTPUT_BUFFER_SIZE );
+        try (Metrics.Timer timer = Metrics.time("autoCrop.encode")) {
+            ImageIO.write(out, "jpg", encoded);
+            Metrics.increment(Metrics.Counter.IMAGES_ENCODED);
+            timer.bytes(encoded.size());
+        }
+        return encoded.toByteArray();
+    }
+
+    /**
+     * Reads the image size from the header, without decoding the image.
+     * @param input a File, InputStream, or other input ImageIO accepts
+     * @throws IOException if no reader knows the image
+     */
+    public static Dimension size( Object input ) throws IOException {
+        try (ImageInputStream iis = ImageIO.createImageInputStream( input )) {
+            ImageReader reader = reader( iis, input );
+            try {
+                reader.setInput( iis, true, true );
+                return new Dimension( reader.getWidth( 0 ), reader.getHeight( 0 ));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Decodes a region of the image, reading every subsample'th pixel.
+     * @param input a File, InputStream, or other input ImageIO accepts
+     * @param region the pixels to decode, or null for all
+     * @param subsample 1 for every pixel
+     * @throws IOException if no reader knows the image
+     */
+    public static BufferedImage read( Object input, Rectangle region, int subsample ) throws IOException {
+        try (ImageInputStream iis = ImageIO.createImageInputStream( input )) {
+            ImageReader reader = reader( iis, input );
+            try {
+                reader.setInput( iis, true, true );
+                ImageReadParam param = reader.getDefaultReadParam();
+                if ( null != region ) {
+                    param.setSourceRegion( region );
+                }
+                if ( subsample > 1 ) {
+                    param.setSourceSubsampling( subsample, subsample, 0, 0 );
+                }
+                return reader.read( 0, param );
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static ImageReader reader( ImageInputStream iis, Object input ) throws IOException {
+        if ( null == iis ) {
+            throw new IOException( "image \"" + input + "\" cannot be opened" );
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders( iis );
+        if ( !readers.hasNext() ) {
+            throw new IOException( "image \"" + input + "\" has no reader" );
+        }
+        return readers.next();
     }
 
     /**
@@ -119,12 +288,30 @@ public class Image {
      * @return a cropped BufferedImage or null for no changes
      */
     public static BufferedImage getCroppedImage(BufferedImage source, int baseColor, double tolerance) throws IOException {
+        Rectangle box = getCropBox( source, baseColor, tolerance );
+        if ( null == box ) {
+            return null;
+        }
+        BufferedImage destination = new BufferedImage(box.width, box.height, source.getType());
+        destination.getGraphics().drawImage(source, 0, 0, destination.getWidth(), destination.getHeight(),
+             box.x, box.y, box.x + box.width, box.y + box.height, null);
+        return destination;
+    }
+
+    /**
+     * Finds the bounding box of the pixels which differ from the border color, as getCroppedImage crops to.
+     * @param source
+     * @param baseColor border color, or -2 to vote on a corner pixel
+     * @param tolerance
+     * @return the box in pixels, or null when every pixel is border color
+     */
+    public static Rectangle getCropBox(BufferedImage source, int baseColor, double tolerance) throws IOException {
         int width = source.getWidth();
         int height = source.getHeight();
         boolean imageCloseness = false; // turn on/off writing of closeness image
 
         // Draw an image of pixel distances.
-        BufferedImage closenessImage = new BufferedImage( width, height, source.getType() );
+        BufferedImage closenessImage = imageCloseness ? new BufferedImage( width, height, source.getType() ) : null;
         if ( -2 == baseColor ) {
             baseColor = calculateBaseColor( source );
         }
@@ -144,7 +331,7 @@ public class Image {
                 pixels++;
                 // double distance = colorDistance( baseColor, source.getRGB( x, y ) );
                 if (colorWithinTolerance(baseColor, source.getRGB( x, y ), tolerance)) {
-                    closenessImage.setRGB(x,y, argbInt( "255", "0", "255", "0"));
+                    if ( imageCloseness ) closenessImage.setRGB(x,y, argbInt( "255", "0", "255", "0"));
                     inTolerance++;
                     if (x < topX) {
                         topX = x;
@@ -163,7 +350,7 @@ public class Image {
                         bottomYAdjustCount++;
                     }
                 } else {
-                    closenessImage.setRGB(x,y, argbInt( "255", "255", "0", "0"));
+                    if ( imageCloseness ) closenessImage.setRGB(x,y, argbInt( "255", "255", "0", "0"));
                     outTolerance++;
                 }
             }
@@ -171,20 +358,14 @@ public class Image {
         LOGGER.info( "Pixels/in tolerance/out tolerance=" + pixels + "/" + inTolerance + "/" + outTolerance );
         LOGGER.info( "Edge adjustments: topX=" + topX + ", topY=" + topY + ", bottomX=" + bottomX + ", bottomY=" + bottomY);
         LOGGER.info( "Edge adjustment counts: topX=" + topXAdjustCount + ", topY=" + topYAdjustCount + ", bottomX=" + bottomXAdjustCount + ", bottomY=" + bottomYAdjustCount);
-        if ( 0 == topXAdjustCount && 0 == topYAdjustCount && 0 == bottomXAdjustCount && 0 == bottomYAdjustCount) {
-            return null;
-        }
-        BufferedImage destination = new BufferedImage((bottomX - topX + 1), (bottomY - topY + 1),
-                source.getType());
-        destination.getGraphics().drawImage(source, 0, 0, destination.getWidth(), destination.getHeight(),
-             topX, topY, bottomX+1, bottomY+1, null);
-
         if ( imageCloseness ) {
             ImageIO.write(closenessImage, "jpg", new File( "resources/extractImages/closenessMap.jpg"));
+            closenessImage.flush();
         }
-        closenessImage.flush();
-
-        return destination;
+        if ( 0 == topXAdjustCount && 0 == topYAdjustCount && 0 == bottomXAdjustCount && 0 == bottomYAdjustCount) {
+            return null;
+        }
+        return new Rectangle( topX, topY, bottomX - topX + 1, bottomY - topY + 1 );
     }
     
     public static int calculateBaseColor( BufferedImage source ) {
@@ -234,7 +415,7 @@ public class Image {
      * @param b
      * @return
      */
-    private static double colorDistance(int a, int b ) {
+    public static double colorDistance(int a, int b ) {
         int aAlpha = (int) ((a & 0xFF000000) >>> 24); // Alpha level
         int aRed = (int) ((a & 0x00FF0000) >>> 16); // Red level
         int aGreen = (int) ((a & 0x0000FF00) >>> 8); // Green level
@@ -276,6 +457,17 @@ public class Image {
         return String.format("(%d,%d,%d,%d)",aAlpha,aRed,aGreen,aBlue);
     }    
     
+    /** Parses comma separated RGB or ARGB, for example "255,180,180,180", and returns an int */
+    public static int argbInt( String colorString ) {
+        String [] components = colorString.split("\\,");
+        if ( components.length == 3 ) {
+            return argbInt(null, components[0], components[1], components[2]);                    
+        } else if (components.length == 4){
+            return argbInt(components[0], components[1], components[2], components[3]);                    
+        }
+        throw new IllegalArgumentException( "base color \"" + colorString + "\" is illegal");
+    }
+
     /** Checks null and range and returns an int */
     public static int argbInt( String a, String r, String g, String b) {
         int color = 0;
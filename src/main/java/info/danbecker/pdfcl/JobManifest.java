@@ -0,0 +1,351 @@
+package info.danbecker.pdfcl;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records which sources a job has processed, so a rerun only redoes changed or new sources.
+ *
+ * Each line holds a source path, size, modified time, SHA-256 hash, the job options, and the outputs produced.
+ * A source is up to date when its options match, its outputs exist, and its size and time match
+ * (or, if only the time changed, its hash still matches).
+ * Outputs of sources that are gone, or that a rerun no longer produces, are deleted.
+ * A run over some sources leaves the entries of sources outside them alone.
+ *
+ * @author <a href="mailto://dan@danbecker.info">Dan Becker</a>
+ */
+public class JobManifest {
+    /** LOGGER */
+    public static final Logger LOGGER = LoggerFactory.getLogger(JobManifest.class);
+
+    public static final String FILE_NAME = ".pdfcl-manifest";
+    public static final String HEADER = "# pdfCL manifest: source, size, modified, sha256, options, outputs";
+    public static final String DELIM = "\t";
+    public static final String OUTPUT_DELIM = "|";
+
+    /** What the manifest knows about one source. */
+    public static class Entry {
+        public final String source;
+        public long size;
+        public long modified;
+        public String hash;
+        public String options;
+        public List<String> outputs = new ArrayList<>();
+
+        public Entry(String source) {
+            this.source = source;
+        }
+
+        String toLine() {
+            return source + DELIM + size + DELIM + modified + DELIM + hash + DELIM + options + DELIM + String.join(OUTPUT_DELIM, outputs);
+        }
+
+        static Entry fromLine(String line) {
+            String [] fields = line.split(DELIM, -1);
+            if (fields.length != 6) {
+                throw new IllegalArgumentException("manifest line \"" + line + "\" is illegal");
+            }
+            Entry entry = new Entry(fields[0]);
+            entry.size = Long.parseLong(fields[1]);
+            entry.modified = Long.parseLong(fields[2]);
+            entry.hash = fields[3];
+            entry.options = fields[4];
+            if (fields[5].length() > 0) {
+                entry.outputs.addAll(Arrays.asList(fields[5].split("\\" + OUTPUT_DELIM)));
+            }
+            return entry;
+        }
+    }
+
+    private final Path file;
+    private final String options;
+    private final Map<String,Entry> entries = new LinkedHashMap<>();
+    private final Set<String> seen = new HashSet<>();
+
+    protected JobManifest(Path file, String options) {
+        this.file = file;
+        this.options = options;
+    }
+
+    /**
+     * Loads the manifest for a destination, in the directory itself or next to a destination file.
+     * @param dest destination directory or file
+     * @param options the verb and options which affect the outputs
+     * @throws IOException
+     */
+    public static JobManifest load(String dest, String options) throws IOException {
+        Path destPath = Paths.get(dest);
+        Path file = Files.isDirectory(destPath) ? destPath.resolve(FILE_NAME)
+            : destPath.resolveSibling(destPath.getFileName() + FILE_NAME);
+        JobManifest manifest = new JobManifest(file, options);
+        if (Files.isReadable(file)) {
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                while (null != (line = reader.readLine())) {
+                    if (line.length() > 0 && !line.startsWith("#")) {
+                        Entry entry = Entry.fromLine(line);
+                        manifest.entries.put(entry.source, entry);
+                    }
+                }
+            }
+            LOGGER.info("Manifest \"" + file + "\" entries=" + manifest.entries.size());
+        }
+        return manifest;
+    }
+
+    public static String key(Path source) {
+        return source.toAbsolutePath().normalize().toString();
+    }
+
+    /**
+     * States if the source has not changed since its outputs were produced with the same options.
+     * Also marks the source as seen in this run.
+     * @throws IOException
+     */
+    public synchronized boolean upToDate(Path source) throws IOException {
+        String key = key(source);
+        seen.add(key);
+        Entry entry = entries.get(key);
+        if (null == entry || !options.equals(entry.options)) {
+            return false;
+        }
+        for (String output : entry.outputs) {
+            if (!Files.exists(Paths.get(output))) {
+                return false;
+            }
+        }
+        long size = Files.size(source);
+        long modified = Files.getLastModifiedTime(source).toMillis();
+        if (size == entry.size && modified == entry.modified) {
+            return true;
+        }
+        if (size == entry.size && hash(source).equals(entry.hash)) {
+            // Touched but not changed.
+            entry.modified = modified;
+            return true;
+        }
+        return false;
+    }
+
+    /** States if the sources are exactly those recorded, in any order. */
+    public synchronized boolean sameSources(Collection<Path> sources) {
+        Set<String> keys = new HashSet<>();
+        for (Path source : sources) {
+            keys.add(key(source));
+        }
+        return keys.equals(entries.keySet());
+    }
+
+    /**
+     * Records the outputs produced for a source, deleting earlier outputs which were not produced again.
+     * @throws IOException
+     */
+    public synchronized void record(Path source, List<Path> outputs) throws IOException {
+        String key = key(source);
+        seen.add(key);
+        Entry entry = new Entry(key);
+        entry.size = Files.size(source);
+        entry.modified = Files.getLastModifiedTime(source).toMillis();
+        entry.hash = hash(source);
+        entry.options = options;
+        for (Path output : outputs) {
+            entry.outputs.add(key(output));
+        }
+        Entry previous = entries.put(key, entry);
+        if (null != previous) {
+            for (String output : previous.outputs) {
+                if (!entry.outputs.contains(output)) {
+                    deleteOutput(output);
+                }
+            }
+        }
+    }
+
+    /**
+     * Records each source whose outputs were all written, after the outputs are in place.
+     * Sources with a failed output are not recorded, so the next run produces them again.
+     * @param produced the outputs of each source
+     * @param failed outputs which were not written
+     * @throws IOException
+     */
+    public synchronized void recordWritten(Map<Path,List<Path>> produced, Set<Path> failed) throws IOException {
+        for (Map.Entry<Path,List<Path>> entry : produced.entrySet()) {
+            if (Collections.disjoint(entry.getValue(), failed)) {
+                record(entry.getKey(), entry.getValue());
+            } else {
+                LOGGER.info("Source \"" + entry.getKey() + "\" has failed outputs, not recorded");
+            }
+        }
+    }
+
+    /**
+     * Drops a source which failed this run and deletes its outputs, unless another source also produced them,
+     * so stale outputs of an earlier version are not used. The next run processes the source again.
+     * @return true if the source had an entry
+     * @throws IOException
+     */
+    public synchronized boolean remove(Path source) throws IOException {
+        Entry entry = entries.remove(key(source));
+        if (null == entry) {
+            return false;
+        }
+        Set<String> live = new HashSet<>();
+        for (Entry other : entries.values()) {
+            live.addAll(other.outputs);
+        }
+        for (String output : entry.outputs) {
+            if (!live.contains(output)) {
+                deleteOutput(output);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Drops sources not seen in this run and deletes their outputs, unless a current source also produced them.
+     * A source is only dropped if it no longer exists, or it lies within one of the roots of this run,
+     * so a run over one file or directory keeps the entries of sources elsewhere.
+     * @param roots the source files and directories of this run
+     * @return the number of sources dropped
+     * @throws IOException
+     */
+    public synchronized int removeStale(String[] roots) throws IOException {
+        List<Path> rootPaths = new ArrayList<>();
+        for (String root : roots) {
+            rootPaths.add(Paths.get(key(Paths.get(root))));
+        }
+        return removeUnseen(entry -> isStale(Paths.get(entry.source), rootPaths));
+    }
+
+    /**
+     * Drops every source not seen in this run and deletes its outputs, unless a current source also produced them.
+     * For an output built from the sources of this run alone, where sources of other runs no longer count.
+     * @return the number of sources dropped
+     * @throws IOException
+     */
+    public synchronized int removeUnseen() throws IOException {
+        return removeUnseen(entry -> true);
+    }
+
+    /** Drops the unseen sources which are stale, and deletes their outputs unless a seen source also produced them. */
+    protected int removeUnseen(Predicate<Entry> stale) throws IOException {
+        Set<String> live = new HashSet<>();
+        for (Entry entry : entries.values()) {
+            if (seen.contains(entry.source)) {
+                live.addAll(entry.outputs);
+            }
+        }
+        int removed = 0;
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+            Entry entry = it.next();
+            if (!seen.contains(entry.source) && stale.test(entry)) {
+                LOGGER.info("Source \"" + entry.source + "\" is no longer a source, dropped");
+                for (String output : entry.outputs) {
+                    if (!live.contains(output)) {
+                        deleteOutput(output);
+                    }
+                }
+                it.remove();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /** States if an unseen source is gone, or lies within a root and so was not found again. */
+    protected static boolean isStale(Path source, List<Path> roots) {
+        if (!Files.exists(source)) {
+            return true;
+        }
+        for (Path root : roots) {
+            if (source.startsWith(root)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns the keys of all recorded sources. */
+    public synchronized Set<String> sources() {
+        return new LinkedHashSet<>(entries.keySet());
+    }
+
+    /** Returns the outputs of all recorded sources, in the order the sources were first recorded. */
+    public synchronized List<Path> outputs() {
+        List<Path> outputs = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            for (String output : entry.outputs) {
+                outputs.add(Paths.get(output));
+            }
+        }
+        return outputs;
+    }
+
+    /**
+     * Writes the manifest to a temporary file and moves it into place.
+     * @throws IOException
+     */
+    public synchronized void save() throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(temp, StandardCharsets.UTF_8))) {
+            writer.println(HEADER);
+            for (Entry entry : entries.values()) {
+                writer.println(entry.toLine());
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        LOGGER.info("Manifest \"" + file + "\" saved entries=" + entries.size());
+    }
+
+    protected static void deleteOutput(String output) throws IOException {
+        if (Files.deleteIfExists(Paths.get(output))) {
+            LOGGER.info("Removed stale output \"" + output + "\"");
+        }
+    }
+
+    /** Returns the SHA-256 of the file content in hex. */
+    public static String hash(Path source) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 is not available", e);
+        }
+        byte[] buffer = new byte[ 64 * 1024 ];
+        try (InputStream in = Files.newInputStream(source)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
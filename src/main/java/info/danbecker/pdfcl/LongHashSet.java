@@ -0,0 +1,109 @@
+package info.danbecker.pdfcl;
+
+import java.util.Arrays;
+
+/**
+ * A small open addressing hash set of primitive longs.
+ *
+ * Used to remember visited PDF objects by indirect reference without
+ * boxing or hashing the PdfObject itself.
+ *
+ * @author <a href="mailto://dan@danbecker.info">Dan Becker</a>
+ */
+public class LongHashSet {
+    /** Marks an empty slot. Object numbers start at 1, so a key of 0 is never stored. */
+    private static final long EMPTY = 0L;
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private long[] keys;
+    private int size;
+    private boolean hasEmptyKey;
+
+    public LongHashSet() {
+        this( DEFAULT_CAPACITY );
+    }
+
+    public LongHashSet( int expected ) {
+        int capacity = Integer.highestOneBit( Math.max( DEFAULT_CAPACITY, expected * 2 ) - 1 ) << 1;
+        keys = new long[ capacity ];
+    }
+
+    /** Combines an object number and generation number into one key. */
+    public static long key( int objNr, int genNr ) {
+        return ((long) objNr << 32) | (genNr & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Adds the value to the set.
+     * @return true if the value was not already present
+     */
+    public boolean add( long value ) {
+        if ( EMPTY == value ) {
+            if ( hasEmptyKey ) {
+                return false;
+            }
+            hasEmptyKey = true;
+            size++;
+            return true;
+        }
+        int mask = keys.length - 1;
+        int slot = mix( value ) & mask;
+        while ( EMPTY != keys[ slot ] ) {
+            if ( value == keys[ slot ] ) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[ slot ] = value;
+        if ( ++size * 2 > keys.length ) {
+            rehash( keys.length << 1 );
+        }
+        return true;
+    }
+
+    public boolean contains( long value ) {
+        if ( EMPTY == value ) {
+            return hasEmptyKey;
+        }
+        int mask = keys.length - 1;
+        int slot = mix( value ) & mask;
+        while ( EMPTY != keys[ slot ] ) {
+            if ( value == keys[ slot ] ) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill( keys, EMPTY );
+        size = 0;
+        hasEmptyKey = false;
+    }
+
+    private void rehash( int capacity ) {
+        long[] old = keys;
+        keys = new long[ capacity ];
+        int mask = capacity - 1;
+        for ( long value : old ) {
+            if ( EMPTY != value ) {
+                int slot = mix( value ) & mask;
+                while ( EMPTY != keys[ slot ] ) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[ slot ] = value;
+            }
+        }
+    }
+
+    /** Spreads the bits of the key so sequential object numbers do not cluster. */
+    private static int mix( long value ) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,127 @@
+package info.danbecker.pdfcl;
+
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Admits image decodes against a memory budget shared by all threads.
+ *
+ * Callers estimate the bytes a decode will hold, from the image header or stream dictionary,
+ * and reserve them before decoding. A reservation waits until enough of the budget is released,
+ * so concurrency adapts to image size. A decode larger than the whole budget can never be admitted,
+ * and callers check fits first to take a subsampled or streaming path, or skip the image.
+ *
+ * @author <a href="mailto://dan@danbecker.info">Dan Becker</a>
+ */
+public class MemoryBudget {
+    /** LOGGER */
+    public static final Logger LOGGER = LoggerFactory.getLogger(MemoryBudget.class);
+
+    /** Decoded images are estimated at 4 bytes per pixel, as for TYPE_INT_ARGB. */
+    public static final int BYTES_PER_PIXEL = 4;
+    /** The default budget is this fraction of the maximum heap. */
+    public static final double HEAP_FRACTION = 0.5;
+
+    private static volatile MemoryBudget global = new MemoryBudget((long) (Runtime.getRuntime().maxMemory() * HEAP_FRACTION));
+
+    private final long total;
+    private long reserved;
+
+    /** @param total bytes which may be reserved at once */
+    public MemoryBudget(long total) {
+        this.total = total;
+    }
+
+    /** The budget shared by all decodes. */
+    public static MemoryBudget global() {
+        return global;
+    }
+
+    /** Replaces the shared budget, for example from the command line. */
+    public static void setGlobal(long total) {
+        LOGGER.info("Memory budget=" + total);
+        global = new MemoryBudget(total);
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    /** Estimates the bytes of a decoded image. */
+    public static long imageBytes(long width, long height) {
+        return width * height * BYTES_PER_PIXEL;
+    }
+
+    /** States if a reservation of the bytes can ever be admitted. */
+    public boolean fits(long bytes) {
+        return bytes <= total;
+    }
+
+    /** Returns the smallest subsample factor, at least min, which brings a decode of the bytes within the budget. */
+    public int subsample(long bytes, int min) {
+        return subsample(bytes, min, 0);
+    }
+
+    /**
+     * Returns the smallest subsample factor, at least min, which brings a decode of the bytes
+     * within the budget alongside held bytes, such as the encoded image. Held must fit the budget.
+     */
+    public int subsample(long bytes, int min, long held) {
+        int subsample = Math.max(1, min);
+        while (!fits(held + bytes / ((long) subsample * subsample))) {
+            subsample++;
+        }
+        return subsample;
+    }
+
+    /**
+     * Reserves the bytes, waiting until they are available.
+     * @throws IllegalArgumentException if the bytes do not fit the budget at all
+     * @throws IOException if interrupted while waiting
+     */
+    public Reservation reserve(long bytes) throws IOException {
+        if (!fits(bytes)) {
+            throw new IllegalArgumentException("reservation " + bytes + " exceeds memory budget " + total);
+        }
+        synchronized (this) {
+            if (reserved + bytes > total) {
+                try {
+                    Metrics.run("memory.wait", () -> {
+                        while (reserved + bytes > total) {
+                            wait();
+                        }
+                    });
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted waiting for " + bytes + " bytes of memory budget", e);
+                }
+            }
+            reserved += bytes;
+        }
+        return new Reservation(bytes);
+    }
+
+    protected synchronized void release(long bytes) {
+        reserved -= bytes;
+        notifyAll();
+    }
+
+    /** Reserved bytes, released when closed. */
+    public class Reservation implements AutoCloseable {
+        private long bytes;
+
+        Reservation(long bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void close() {
+            if (bytes > 0) {
+                release(bytes);
+                bytes = 0;
+            }
+        }
+    }
+}
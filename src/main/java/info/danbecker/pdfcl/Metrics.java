@@ -0,0 +1,260 @@
+package info.danbecker.pdfcl;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jdk.jfr.EventType;
+
+/**
+ * In-process counters and per-stage timings for the verbs.
+ * 
+ * Counters and histograms are only updated when enabled with the --metrics option.
+ * Stage timers also commit a {@link StageEvent} while a Flight Recorder recording has it enabled.
+ * With both off, a timer is a shared no-op instance and nothing is allocated.
+ * 
+ * @author <a href="mailto://dan@danbecker.info">Dan Becker</a>
+ */
+public class Metrics {
+    /** LOGGER */
+    public static final Logger LOGGER = LoggerFactory.getLogger(Metrics.class);
+
+    /** Running totals gathered across all verbs. */
+    public enum Counter {
+        BYTES_READ("bytesRead"),
+        BYTES_WRITTEN("bytesWritten"),
+        PAGES_COPIED("pagesCopied"),
+        IMAGES_DECODED("imagesDecoded"),
+        IMAGES_ENCODED("imagesEncoded");
+
+        private final String jsonName;
+        private final LongAdder adder = new LongAdder();
+
+        Counter(String jsonName) {
+            this.jsonName = jsonName;
+        }
+
+        public long get() {
+            return adder.sum();
+        }
+    }
+
+    /** Durations of one stage in power of two nanosecond buckets. */
+    public static class Histogram {
+        private final long [] buckets = new long[ 64 ];
+        private long count;
+        private long totalNanos;
+        private long minNanos = Long.MAX_VALUE;
+        private long maxNanos;
+
+        public synchronized void record(long nanos) {
+            nanos = Math.max(0, nanos);
+            buckets[ 63 - Long.numberOfLeadingZeros(nanos | 1) ]++;
+            count++;
+            totalNanos += nanos;
+            minNanos = Math.min(minNanos, nanos);
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+
+        public synchronized long getCount() {
+            return count;
+        }
+
+        public synchronized long getTotalNanos() {
+            return totalNanos;
+        }
+
+        /** Returns the upper bound of the bucket holding the given fraction of samples, capped at the max. */
+        public synchronized long percentile(double fraction) {
+            long rank = (long) Math.ceil(fraction * count);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[ i ];
+                if (seen >= rank && seen > 0) {
+                    return Math.min(maxNanos, (2L << i) - 1);
+                }
+            }
+            return maxNanos;
+        }
+
+        synchronized String toJson() {
+            return "{\"count\":" + count + ",\"totalNanos\":" + totalNanos + ",\"minNanos\":" + (0 == count ? 0 : minNanos)
+                + ",\"maxNanos\":" + maxNanos + ",\"p50Nanos\":" + percentile(0.50) + ",\"p90Nanos\":" + percentile(0.90)
+                + ",\"p99Nanos\":" + percentile(0.99) + "}";
+        }
+    }
+
+    /** 
+     * Times one stage. Close it, usually with try-with-resources, when the stage ends.
+     * Stages which do not use the timer in their body are simpler with {@link Metrics#time(String, Stage)}.
+     */
+    public static class Timer implements AutoCloseable {
+        private final String stage;
+        private final long startNanos;
+        private final StageEvent event;
+        private long bytes;
+
+        Timer(String stage, StageEvent event) {
+            this.stage = stage;
+            this.event = event;
+            if (null != event) {
+                event.stage = stage;
+                event.begin();
+            }
+            this.startNanos = System.nanoTime();
+        }
+
+        /** Records the bytes handled by this stage in the Flight Recorder event. */
+        public Timer bytes(long bytes) {
+            this.bytes += bytes;
+            return this;
+        }
+
+        @Override
+        public void close() {
+            if (enabled) {
+                histogram(stage).record(System.nanoTime() - startNanos);
+            }
+            if (null != event) {
+                event.bytes = bytes;
+                event.commit();
+            }
+        }
+    }
+
+    /** The work of one stage, returning a value. */
+    @FunctionalInterface
+    public interface Stage<T, E extends Exception> {
+        T call() throws E;
+    }
+
+    /** The work of one stage, returning nothing. */
+    @FunctionalInterface
+    public interface VoidStage<E extends Exception> {
+        void run() throws E;
+    }
+
+    private static final Timer NOOP = new Timer(null, null) {
+        @Override
+        public Timer bytes(long bytes) {
+            return this;
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    private static final EventType STAGE_EVENT_TYPE = EventType.getEventType(StageEvent.class);
+    private static final Map<String,Histogram> STAGES = new ConcurrentHashMap<>();
+    private static volatile boolean enabled;
+
+    public static void setEnabled(boolean enabled) {
+        Metrics.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /** States if counters are enabled or a Flight Recorder recording wants stage events. */
+    public static boolean isActive() {
+        return enabled || STAGE_EVENT_TYPE.isEnabled();
+    }
+
+    /** Starts timing the named stage, for example "append.copy". */
+    public static Timer time(String stage) {
+        boolean recording = STAGE_EVENT_TYPE.isEnabled();
+        if (!enabled && !recording) {
+            return NOOP;
+        }
+        return new Timer(stage, recording ? new StageEvent() : null);
+    }
+
+    /** Times the named stage around the work and returns its value. */
+    public static <T, E extends Exception> T time(String stage, Stage<T,E> work) throws E {
+        Timer timer = time(stage);
+        try {
+            return work.call();
+        } finally {
+            timer.close();
+        }
+    }
+
+    /** Times the named stage around the work. */
+    public static <E extends Exception> void run(String stage, VoidStage<E> work) throws E {
+        Timer timer = time(stage);
+        try {
+            work.run();
+        } finally {
+            timer.close();
+        }
+    }
+
+    public static void add(Counter counter, long value) {
+        if (enabled) {
+            counter.adder.add(value);
+        }
+    }
+
+    public static void increment(Counter counter) {
+        if (enabled) {
+            counter.adder.increment();
+        }
+    }
+
+    public static Histogram histogram(String stage) {
+        return STAGES.computeIfAbsent(stage, key -> new Histogram());
+    }
+
+    /** Clears all counters and stage timings. */
+    public static void reset() {
+        for (Counter counter : Counter.values()) {
+            counter.adder.reset();
+        }
+        STAGES.clear();
+    }
+
+    /** Summarizes the counters and stage timings as JSON. */
+    public static String toJson() {
+        StringBuilder sb = new StringBuilder("{\"counters\":{");
+        for (Counter counter : Counter.values()) {
+            if (counter.ordinal() > 0) sb.append(",");
+            sb.append("\"" + counter.jsonName + "\":" + counter.get());
+        }
+        sb.append("},\"stages\":{");
+        boolean first = true;
+        for (Map.Entry<String,Histogram> entry : new ConcurrentSkipListMap<>(STAGES).entrySet()) {
+            if (!first) sb.append(",");
+            first = false;
+            sb.append(PdfStats.jsonString(entry.getKey()) + ":" + entry.getValue().toJson());
+        }
+        return sb.append("}}").toString();
+    }
+
+    /** 
+     * Writes the summary to the given file, or logs it when the file is null.
+     * @throws IOException
+     */
+    public static void dump(String dest) throws IOException {
+        String json = toJson();
+        if (null == dest) {
+            LOGGER.info("metrics=" + json);
+        } else {
+            PdfCL.mkdirs(Paths.get(dest).toAbsolutePath().toString());
+            try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(Paths.get(dest), StandardCharsets.UTF_8))) {
+                writer.println(json);
+            }
+            LOGGER.info("metrics written to \"" + dest + "\"");
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package info.danbecker.pdfcl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes encoded outputs on dedicated writer threads, so encoding and disk I/O overlap.
+ *
+ * Workers hand over the encoded bytes and continue, only blocking when the bounded queue is full
+ * or the queued bytes would exceed the MemoryBudget. Outputs too large for the budget are written at once.
+ * The writer threads start with the first output, so verbs which write no images start none.
+ * Each output is written with one FileChannel write to a temporary file in the target directory
+ * and then renamed into place, so a target is either absent or complete.
+ * When syncing, temporary files are forced to disk in batches before they are renamed.
+ * Without a started stage, outputs are written the same way on the calling thread.
+ * A failed output is logged and reported by flush as its own target, so callers record only the outputs
+ * which were written, and later writes of other targets are not failed by it. Close reports that any failed.
+ *
+ * @author <a href="mailto://dan@danbecker.info">Dan Becker</a>
+ */
+public class OutputStage implements AutoCloseable {
+    /** LOGGER */
+    public static final Logger LOGGER = LoggerFactory.getLogger(OutputStage.class);
+
+    public static final int WRITERS = 2;
+    /** Encoded outputs waiting to be written. Bounds the memory held by the queue. */
+    public static final int CAPACITY = 16;
+    public static final int DEFAULT_SYNC_BATCH = 16;
+
+    /** An encoded output, and the budget its bytes hold while queued. */
+    protected static class Output {
+        final Path target;
+        final byte[] bytes;
+        MemoryBudget.Reservation reservation;
+
+        Output(Path target, byte[] bytes) {
+            this.target = target;
+            this.bytes = bytes;
+        }
+
+        void release() {
+            if (null != reservation) {
+                reservation.close();
+            }
+        }
+    }
+
+    /** A temporary file written but not yet renamed. */
+    protected static class Written {
+        final Output output;
+        final Path temp;
+        final FileChannel channel;
+
+        Written(Output output, Path temp, FileChannel channel) {
+            this.output = output;
+            this.temp = temp;
+            this.channel = channel;
+        }
+    }
+
+    private static final Output STOP = new Output(null, null);
+    private static final AtomicLong TEMP_SEQUENCE = new AtomicLong(System.nanoTime());
+    private static volatile OutputStage current;
+
+    private final BlockingQueue<Output> queue;
+    private final List<Thread> writers = new ArrayList<>();
+    private final int writerCount;
+    private final int syncBatch;
+    private int pending;
+    private final Set<Path> failedTargets = new HashSet<>();
+    private IOException error;
+
+    /**
+     * @param writers number of writer threads
+     * @param capacity outputs which may wait in the queue
+     * @param syncBatch force outputs to disk in batches of this size before renaming, 0 for no sync
+     */
+    public OutputStage(int writers, int capacity, int syncBatch) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.writerCount = writers;
+        this.syncBatch = syncBatch;
+    }
+
+    /**
+     * Starts the stage used by write until it is closed.
+     * @param syncBatch force outputs to disk in batches of this size before renaming, 0 for no sync
+     */
+    public static OutputStage start(int syncBatch) {
+        current = new OutputStage(WRITERS, CAPACITY, syncBatch);
+        return current;
+    }
+
+    /**
+     * Writes the bytes to the target, on the started stage if any, otherwise now.
+     * A failure on the stage is reported by flush, not by this or later writes.
+     * @throws IOException from a write now
+     */
+    public static void write(Path target, byte[] bytes) throws IOException {
+        OutputStage stage = current;
+        if (null != stage && MemoryBudget.global().fits(bytes.length)) {
+            stage.submit(new Output(target, bytes));
+        } else {
+            try (Metrics.Timer timer = Metrics.time("output.write")) {
+                Written written = writeTemp(new Output(target, bytes), false);
+                rename(written);
+                timer.bytes(PdfCL.written(bytes.length));
+            }
+        }
+    }
+
+    /**
+     * Waits until all outputs written so far are in place, such as before a manifest records them.
+     * @return the targets of outputs which failed on the stage, and are not in place
+     * @throws IOException if interrupted
+     */
+    public static Set<Path> flush() throws IOException {
+        OutputStage stage = current;
+        if (null != stage) {
+            return stage.drain();
+        }
+        return Collections.emptySet();
+    }
+
+    protected void submit(Output output) throws IOException {
+        output.reservation = MemoryBudget.global().reserve(output.bytes.length);
+        synchronized (this) {
+            if (writers.isEmpty()) {
+                for (int i = 0; i < writerCount; i++) {
+                    Thread writer = new Thread(this::run, "output-" + i);
+                    writer.setDaemon(true);
+                    writer.start();
+                    writers.add(writer);
+                }
+            }
+            pending++;
+        }
+        try {
+            queue.put(output);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            output.release();
+            done(1);
+            throw new IOException("Interrupted writing \"" + output.target + "\"", e);
+        }
+    }
+
+    /** Waits until no outputs are pending, and returns the targets which failed. */
+    protected synchronized Set<Path> drain() throws IOException {
+        try {
+            while (pending > 0) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for outputs", e);
+        }
+        return new HashSet<>(failedTargets);
+    }
+
+    protected synchronized void done(int count) {
+        pending -= count;
+        notifyAll();
+    }
+
+    protected synchronized void failed(Path target, Throwable e) {
+        LOGGER.error("Output \"" + target + "\" failed e=" + e);
+        failedTargets.add(target);
+        if (null == error) {
+            error = e instanceof IOException ? (IOException) e : new IOException("Output \"" + target + "\" failed", e);
+        }
+    }
+
+    /** Writes queued outputs, renaming them as they are written, or once their batch is synced. */
+    protected void run() {
+        List<Written> batch = new ArrayList<>();
+        try {
+            while (true) {
+                // Sync a partial batch when the queue runs dry, rather than holding it back.
+                Output output = batch.isEmpty() ? queue.take() : queue.poll();
+                if (null == output || STOP == output) {
+                    commit(batch);
+                    if (STOP == output) {
+                        return;
+                    }
+                    continue;
+                }
+                // Any failure is recorded for the submitter, and the output is always done, so drain and close return.
+                boolean batched = false;
+                try (Metrics.Timer timer = Metrics.time("output.write")) {
+                    Written written = writeTemp(output, syncBatch > 0);
+                    timer.bytes(PdfCL.written(output.bytes.length));
+                    if (syncBatch > 0) {
+                        batch.add(written);
+                        batched = true;
+                    } else {
+                        rename(written);
+                    }
+                } catch (Throwable e) {
+                    failed(output.target, e);
+                } finally {
+                    output.release();
+                    if (!batched) {
+                        done(1);
+                    }
+                }
+                if (batch.size() >= syncBatch && syncBatch > 0) {
+                    commit(batch);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Forces a batch of temporary files to disk, then renames them into place. */
+    protected void commit(List<Written> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            Metrics.run("output.sync", () -> {
+                // Each file is closed, and renamed or deleted, whatever happened to the others.
+                for (Written written : batch) {
+                    try {
+                        try {
+                            written.channel.force(true);
+                        } finally {
+                            written.channel.close();
+                        }
+                        rename(written);
+                    } catch (Throwable e) {
+                        failed(written.output.target, e);
+                        try {
+                            Files.deleteIfExists(written.temp);
+                        } catch (IOException d) {
+                            LOGGER.error("Temporary file \"" + written.temp + "\" cannot be deleted e=" + d);
+                        }
+                    }
+                }
+            });
+        } finally {
+            done(batch.size());
+            batch.clear();
+        }
+    }
+
+    /**
+     * Writes the output to a temporary file beside the target with a single channel write.
+     * @param keepOpen leave the channel open to force it later
+     */
+    protected static Written writeTemp(Output output, boolean keepOpen) throws IOException {
+        // Not Files.createTempFile, whose owner only permissions would stay with the renamed output.
+        Path temp = output.target.resolveSibling("." + output.target.getFileName() + "." + TEMP_SEQUENCE.incrementAndGet() + ".tmp");
+        FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(output.bytes);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        if (!keepOpen) {
+            channel.close();
+        }
+        return new Written(output, temp, channel);
+    }
+
+    protected static void rename(Written written) throws IOException {
+        try {
+            Files.move(written.temp, written.output.target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(written.temp);
+            throw e;
+        }
+    }
+
+    /**
+     * Writes the remaining outputs and stops the writers.
+     * @throws IOException if any output failed, with the first failure as its cause
+     */
+    @Override
+    public void close() throws IOException {
+        if (this == current) {
+            current = null;
+        }
+        List<Thread> started;
+        synchronized (this) {
+            started = new ArrayList<>(writers);
+        }
+        try {
+            for (int i = 0; i < started.size(); i++) {
+                queue.put(STOP);
+            }
+            for (Thread writer : started) {
+                writer.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted closing outputs", e);
+        }
+        synchronized (this) {
+            if (null != error) {
+                throw new IOException("Outputs failed=" + failedTargets.size() + ", first e=" + error, error);
+            }
+        }
+    }
+}
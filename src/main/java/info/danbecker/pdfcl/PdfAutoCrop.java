@@ -0,0 +1,397 @@
+package info.danbecker.pdfcl;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.itextpdf.kernel.geom.Matrix;
+import com.itextpdf.kernel.geom.Rectangle;
+import com.itextpdf.kernel.geom.Vector;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfIndirectReference;
+import com.itextpdf.kernel.pdf.PdfName;
+import com.itextpdf.kernel.pdf.PdfNumber;
+import com.itextpdf.kernel.pdf.PdfObject;
+import com.itextpdf.kernel.pdf.PdfPage;
+import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.kernel.pdf.PdfStream;
+import com.itextpdf.kernel.pdf.PdfWriter;
+import com.itextpdf.kernel.pdf.canvas.parser.EventType;
+import com.itextpdf.kernel.pdf.canvas.parser.PdfCanvasProcessor;
+import com.itextpdf.kernel.pdf.canvas.parser.data.IEventData;
+import com.itextpdf.kernel.pdf.canvas.parser.data.ImageRenderInfo;
+import com.itextpdf.kernel.pdf.canvas.parser.listener.IEventListener;
+import com.itextpdf.kernel.pdf.xobject.PdfImageXObject;
+
+/**
+ * Crops scanned PDF pages by setting the page CropBox to the content of the page image.
+ *
+ * Each page whose content is a single image is scanned with the same border detection as autoCrop,
+ * and the content bounding box is mapped from image pixels to page space through the image matrix.
+ * Everything outside that box is cropped away, including text and vector content such as an
+ * OCR text layer or annotations drawn beyond the image content.
+ * The image streams are copied untouched, so the crop is lossless and can be undone by removing the CropBox.
+ * Pages are parsed in order, while image extraction, decoding and scanning run in parallel. Each worker reads
+ * the image through its own PdfDocument on the source, as documents are not thread safe.
+ *
+ * @author <a href="mailto://dan@danbecker.info">Dan Becker</a>
+ */
+public class PdfAutoCrop {
+    /** LOGGER */
+    public static final Logger LOGGER = LoggerFactory.getLogger(PdfAutoCrop.class);
+
+    public static final float DEFAULT_TOLERANCE = 0.10f;
+
+    private final int baseColor;
+    private final float tolerance;
+    private final int subsample;
+    private final ExecutorService executor;
+    private final int window;
+
+    /**
+     * @param baseColor border color, or -2 to vote on a corner pixel
+     * @param tolerance color distance 0..1
+     * @param subsample scan every nth pixel in each direction, 1 for all pixels
+     * @param executor runs the page scans
+     * @param window the most pages scanned or waiting at once
+     */
+    public PdfAutoCrop(int baseColor, float tolerance, int subsample, ExecutorService executor, int window) {
+        this.baseColor = baseColor;
+        this.tolerance = tolerance;
+        this.subsample = Math.max(1, subsample);
+        this.executor = executor;
+        this.window = window;
+    }
+
+    /**
+     * Crops the PDF files found by the finder. A file which cannot be cropped is logged and skipped.
+     * @param srcs files or directories of PDF files
+     * @param dest output file for a single source ending in ".pdf", otherwise an output directory
+     * @param baseColorARGB border color, null to vote on a corner pixel
+     * @param number is tolerance expressed as a float percentage, for example 0.05
+     * @param list optional subsample factor, for example 4 scans every 4th pixel of every 4th row
+     * @throws IOException
+     */
+    public static void pdfAutoCrop(String[] srcs, String dest, String baseColorARGB, String number, List<Integer> list,
+        SourceFinder finder) throws IOException {
+        int baseColor = null == baseColorARGB ? -2 : Image.argbInt(baseColorARGB);
+        float tolerance = null == number ? DEFAULT_TOLERANCE : Float.parseFloat(number);
+        int subsample = list.size() > 0 ? list.get(0) : 1;
+        boolean singleFile = 1 == srcs.length && new File(srcs[0]).isFile() && dest.toLowerCase().endsWith(".pdf");
+        if (singleFile) {
+            PdfCL.mkdirs(new File(dest).getAbsolutePath());
+        } else {
+            new File(dest).mkdirs();
+        }
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            PdfAutoCrop cropper = new PdfAutoCrop(baseColor, tolerance, subsample, executor, 2 * threads);
+            finder.forEach(srcs, (root, srcFile) -> {
+                File destFile = singleFile ? new File(dest) : SourceFinder.outputFile(root, srcFile, dest, "-c.pdf");
+                try {
+                    cropper.crop(srcFile.toFile(), destFile);
+                } catch (IOException | RuntimeException e) {
+                    LOGGER.error("Source file=" + srcFile + " cannot be cropped e=" + e);
+                }
+            });
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /** A page waiting for the scan of its image. */
+    protected static class PageCrop {
+        final int pageNumber;
+        final Matrix imageCtm;
+        final Future<java.awt.Rectangle> box;
+
+        PageCrop(int pageNumber, Matrix imageCtm, Future<java.awt.Rectangle> box) {
+            this.pageNumber = pageNumber;
+            this.imageCtm = imageCtm;
+            this.box = box;
+        }
+    }
+
+    /**
+     * The workers' own read only documents on one source, as documents are not thread safe.
+     * Closing waits until no worker is reading, and later reads fail, so no document is used or opened once closed.
+     */
+    protected static class Readers implements AutoCloseable {
+        private final File srcFile;
+        private final Map<Thread,PdfDocument> documents = new ConcurrentHashMap<>();
+        private int reading;
+        private boolean closed;
+
+        Readers(File srcFile) {
+            this.srcFile = srcFile;
+        }
+
+        /** Extracts the image of the given object number, decoded as getImageBytes(true) does. */
+        byte[] imageBytes(int objNr) throws IOException {
+            synchronized (this) {
+                if (closed) {
+                    throw new IOException("\"" + srcFile + "\" is closed");
+                }
+                reading++;
+            }
+            try {
+                PdfDocument document = documents.get(Thread.currentThread());
+                if (null == document) {
+                    document = new PdfDocument(new PdfReader(srcFile));
+                    documents.put(Thread.currentThread(), document);
+                }
+                return PdfAutoCrop.imageBytes(document, objNr);
+            } finally {
+                synchronized (this) {
+                    reading--;
+                    notifyAll();
+                }
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            closed = true;
+            boolean interrupted = false;
+            while (reading > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            for (PdfDocument document : documents.values()) {
+                document.close();
+            }
+            documents.clear();
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /** Crops every single image page of one file. On failure no partial dest file is left behind. */
+    public void crop(File srcFile, File destFile) throws IOException {
+        int cropped = 0;
+        try (Metrics.Timer timer = Metrics.time("pdfAutoCrop.document")) {
+            timer.bytes(PdfCL.read(srcFile.getPath()));
+            Deque<PageCrop> pending = new ArrayDeque<>();
+            // Readers close last, once the workers still reading are done.
+            try (Readers readers = new Readers(srcFile); PdfReader reader = new PdfReader(srcFile);
+                PdfWriter writer = new PdfWriter(destFile); PdfDocument pdfDoc = new PdfDocument(reader, writer)) {
+                try {
+                    int numPages = pdfDoc.getNumberOfPages();
+                    for (int i = 1; i <= numPages; i++) {
+                        PdfPage page = pdfDoc.getPage(i);
+                        ImageRenderInfo image = soleImage(page);
+                        if (null == image) {
+                            LOGGER.info("\"" + srcFile + "\" page " + i + " is not a single image");
+                            continue;
+                        }
+                        PdfImageXObject xObject = image.getImage();
+                        int width = (int) xObject.getWidth();
+                        int height = (int) xObject.getHeight();
+                        long held = heldBytes(xObject.getPdfObject(), width, height);
+                        PdfIndirectReference reference = xObject.getPdfObject().getIndirectReference();
+                        Future<java.awt.Rectangle> box;
+                        if (null != reference) {
+                            int objNr = reference.getObjNumber();
+                            box = executor.submit(() -> scan(() -> readers.imageBytes(objNr), held, width, height));
+                        } else {
+                            // Inline images have no object to fetch, and are small, so they are read here.
+                            byte[] bytes;
+                            try {
+                                bytes = xObject.getImageBytes(true);
+                            } catch (RuntimeException e) {
+                                LOGGER.info("\"" + srcFile + "\" page " + i + " image cannot be read e=" + e);
+                                continue;
+                            }
+                            box = executor.submit(() -> scan(() -> bytes, bytes.length, width, height));
+                        }
+                        pending.add(new PageCrop(i, image.getImageCtm(), box));
+                        while (pending.size() >= window) {
+                            cropped += apply(pdfDoc, pending.poll(), srcFile);
+                        }
+                    }
+                    while (!pending.isEmpty()) {
+                        cropped += apply(pdfDoc, pending.poll(), srcFile);
+                    }
+                    LOGGER.info("\"" + destFile + "\" cropped pages=" + cropped + " of " + numPages);
+                } finally {
+                    // Scans not started are dropped, and readers waits for those already reading.
+                    for (PageCrop pageCrop : pending) {
+                        pageCrop.box.cancel(false);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(destFile.toPath());
+                throw e;
+            }
+            timer.bytes(PdfCL.written(destFile.getPath()));
+        }
+    }
+
+    /** Extracts the image of the given object number, decoded as getImageBytes(true) does. */
+    protected static byte[] imageBytes(PdfDocument reader, int objNr) throws IOException {
+        PdfObject object = reader.getPdfObject(objNr);
+        if (null == object || !object.isStream()) {
+            throw new IOException("object " + objNr + " is not an image stream");
+        }
+        return new PdfImageXObject((PdfStream) object).getImageBytes(true);
+    }
+
+    /**
+     * Estimates the bytes getImageBytes(true) holds for an image. JPEG family streams are returned as they are,
+     * other filters are decoded to raw samples, estimated at MemoryBudget.BYTES_PER_PIXEL, and encoded again.
+     */
+    protected static long heldBytes(PdfStream stream, int width, int height) {
+        PdfNumber length = stream.getAsNumber(PdfName.Length);
+        long streamBytes = null == length ? 0 : length.longValue();
+        String filter = PdfCL.filterString(stream);
+        if (filter.endsWith("DCTDecode") || filter.endsWith("JPXDecode") || filter.endsWith("JBIG2Decode")) {
+            return streamBytes;
+        }
+        return streamBytes + MemoryBudget.imageBytes(width, height);
+    }
+
+    /** Returns the only image drawn on the page, or null for none or several. */
+    protected static ImageRenderInfo soleImage(PdfPage page) {
+        ImageListener listener = new ImageListener();
+        Metrics.run("pdfAutoCrop.parse", () -> new PdfCanvasProcessor(listener).processPageContent(page));
+        return 1 == listener.count ? listener.image : null;
+    }
+
+    /** Counts the images drawn and keeps the first. */
+    protected static class ImageListener implements IEventListener {
+        ImageRenderInfo image;
+        int count;
+
+        @Override
+        public void eventOccurred(IEventData data, EventType type) {
+            if (EventType.RENDER_IMAGE == type) {
+                if (0 == count++) {
+                    image = (ImageRenderInfo) data;
+                    image.preserveGraphicsState();
+                }
+            }
+        }
+
+        @Override
+        public Set<EventType> getSupportedEvents() {
+            return null;
+        }
+    }
+
+    /**
+     * Extracts and decodes the image, subsampled if asked or needed to fit the memory budget, and finds its content.
+     * The extracted bytes and the decoded image are admitted against the budget together.
+     * @param extract returns the image bytes
+     * @param held estimated bytes of the extraction
+     * @param width image width from its dictionary
+     * @param height image height from its dictionary
+     * @return the content box as fractions of the image, scaled by 1/0x10000, or null for no adjustments
+     */
+    @SuppressWarnings("try") // the reservation is held for its scope only
+    protected java.awt.Rectangle scan(Metrics.Stage<byte[],IOException> extract, long held, int width, int height) throws IOException {
+        MemoryBudget budget = MemoryBudget.global();
+        if (!budget.fits(held)) {
+            throw new IOException("image bytes " + held + " exceed memory budget " + budget.getTotal());
+        }
+        long imageBytes = MemoryBudget.imageBytes(width, height);
+        int factor = budget.subsample(imageBytes, subsample, held);
+        BufferedImage in;
+        java.awt.Rectangle box;
+        try (MemoryBudget.Reservation reservation = budget.reserve(held + imageBytes / ((long) factor * factor))) {
+            byte[] bytes = Metrics.time("pdfAutoCrop.extract", extract);
+            try (Metrics.Timer timer = Metrics.time("pdfAutoCrop.decode")) {
+                timer.bytes(bytes.length);
+                in = Image.read(new ByteArrayInputStream(bytes), null, factor);
+                Metrics.increment(Metrics.Counter.IMAGES_DECODED);
+            }
+            box = Metrics.time("pdfAutoCrop.scan", () -> Image.getCropBox(in, baseColor, tolerance));
+        }
+        if (null == box) {
+            return null;
+        }
+        if (factor > 1) {
+            // The border may lie anywhere in the skipped pixels, so keep one more sample on each side.
+            box = new java.awt.Rectangle(box.x - 1, box.y - 1, box.width + 2, box.height + 2)
+                .intersection(new java.awt.Rectangle(0, 0, in.getWidth(), in.getHeight()));
+        }
+        // Keep the result independent of the decoded size.
+        int w = in.getWidth(), h = in.getHeight();
+        in.flush();
+        return new java.awt.Rectangle(fraction(box.x, w), fraction(box.y, h),
+            fraction(box.x + box.width, w) - fraction(box.x, w), fraction(box.y + box.height, h) - fraction(box.y, h));
+    }
+
+    private static int fraction(int pixels, int size) {
+        return (int) ((long) pixels * 0x10000 / size);
+    }
+
+    /** Sets the crop box of one page from its scan, and flushes the page. Returns 1 if cropped. */
+    protected int apply(PdfDocument pdfDoc, PageCrop pageCrop, File srcFile) throws IOException {
+        java.awt.Rectangle box;
+        try {
+            box = pageCrop.box.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted cropping \"" + srcFile + "\"", e);
+        } catch (ExecutionException e) {
+            LOGGER.info("\"" + srcFile + "\" page " + pageCrop.pageNumber + " image cannot be scanned e=" + e.getCause());
+            box = null;
+        }
+        PdfPage page = pdfDoc.getPage(pageCrop.pageNumber);
+        int cropped = 0;
+        if (null != box) {
+            Rectangle cropBox = pageSpace(box, pageCrop.imageCtm).getIntersection(page.getCropBox());
+            if (null != cropBox) {
+                page.setCropBox(cropBox);
+                LOGGER.info("\"" + srcFile + "\" page " + pageCrop.pageNumber + " CropBox=" + cropBox);
+                cropped = 1;
+            }
+        } else {
+            LOGGER.info("\"" + srcFile + "\" page " + pageCrop.pageNumber + " no adjustments");
+        }
+        page.flush();
+        return cropped;
+    }
+
+    /**
+     * Maps a box in image fractions (top left origin, scaled by 0x10000) to page space.
+     * Images are drawn into the unit square (bottom left origin) transformed by the image matrix.
+     */
+    protected static Rectangle pageSpace(java.awt.Rectangle box, Matrix imageCtm) {
+        float left = box.x / (float) 0x10000;
+        float right = (box.x + box.width) / (float) 0x10000;
+        float top = 1 - box.y / (float) 0x10000;
+        float bottom = 1 - (box.y + box.height) / (float) 0x10000;
+        float [][] corners = { { left, bottom }, { right, bottom }, { right, top }, { left, top } };
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        for (float [] corner : corners) {
+            Vector point = new Vector(corner[0], corner[1], 1).cross(imageCtm);
+            minX = Math.min(minX, point.get(Vector.I1));
+            minY = Math.min(minY, point.get(Vector.I2));
+            maxX = Math.max(maxX, point.get(Vector.I1));
+            maxY = Math.max(maxY, point.get(Vector.I2));
+        }
+        return new Rectangle(minX, minY, maxX - minX, maxY - minY);
+    }
+}
@@ -1,14 +1,15 @@
 package info.danbecker.pdfcl;
 
-import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.StringWriter;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -16,24 +17,19 @@ import java.util.Set;
 
 import java.awt.image.BufferedImage;
 import javax.imageio.ImageIO;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.itextpdf.io.image.ImageDataFactory;
+import com.itextpdf.io.image.ImageType;
 import com.itextpdf.io.source.RandomAccessSourceFactory;
 import com.itextpdf.kernel.colors.DeviceGray;
 import com.itextpdf.kernel.geom.PageSize;
@@ -78,6 +74,8 @@ public class PdfCL {
     public static final String[] SRC = { "resources/input.pdf" };
     public static final String DEST = "resources/output.pdf";
     public static final String CMD_DELIM = "\\s*,\\s*"; // 0* whitespace, comma, 0* whitespace
+    /** Initial size of the buffer images are encoded into. */
+    public static final int OUTPUT_BUFFER_SIZE = 1 << 20;
 
     protected static String verb;
     protected static String[] srcs;
@@ -85,6 +83,17 @@ public class PdfCL {
     protected static String number;
     protected static List<Integer> list;
     protected static String color;
+    protected static boolean lazy;
+    protected static boolean metrics;
+    protected static boolean recursive;
+    protected static String glob;
+    protected static String watermark;
+    protected static boolean appendMode;
+    protected static boolean incremental;
+    protected static String metricsDest;
+    protected static int syncBatch;
+    protected static long budget;
+    protected static String query;
     
     public static Map<Byte,String> nameMap = new HashMap<>();
 
@@ -102,43 +111,88 @@ public class PdfCL {
         initMap( nameMap );
 
         if (null != verb && verb.length() > 0) {
-            switch (verb) {
-            case "create": {
-                new PdfCL().createPdf(dest, Integer.parseInt(number));
-                break;
-            }
-            case "concatenate": {
-                new PdfCL().concatenatePdf(srcs, dest );
-                break;
-            }
-            case "append": {
-                new PdfCL().appendPdf(srcs, dest, list);
-                break;
-            }
-            case "splitImages": {
-                new PdfCL().splitImages(srcs, dest, list);
-                break;
-            }
-            case "joinImages": {
-                new PdfCL().joinImages(srcs, dest);
-                break;
-            }
-            case "autoCrop": {
-                info.danbecker.pdfcl.Image.autoCrop(srcs, dest, color, number);
-                break;
-            }
-            case "pdfTree": {
-                new PdfCL().pdfTree(srcs, dest);
-                break;
-            }
-            default: {
-                LOGGER.info("verb \"" + verb + "\" is unknown");
-            }
+            Metrics.setEnabled(metrics);
+            try {
+                // The verb timer also covers waiting for queued outputs when the stage closes.
+                Metrics.run(verb, () -> {
+                    OutputStage output = OutputStage.start(syncBatch);
+                    try {
+                        dispatch(verb);
+                    } finally {
+                        output.close();
+                    }
+                });
+            } finally {
+                // Dump what was gathered even when the verb fails.
+                if (metrics) {
+                    Metrics.dump(metricsDest);
+                }
             }
         }
         LOGGER.info("exiting");
     }
 
+    /** Runs the verb with the parsed options. */
+    protected static void dispatch(String verb) throws Exception {
+        switch (verb) {
+        case "create": {
+            new PdfCL().createPdf(dest, Integer.parseInt(number));
+            break;
+        }
+        case "concatenate": {
+            new PdfCL().concatenatePdf(srcs, dest );
+            break;
+        }
+        case "append": {
+            new PdfCL().appendPdf(srcs, dest, list);
+            break;
+        }
+        case "splitImages": {
+            new PdfCL().splitImages(srcs, dest, list);
+            break;
+        }
+        case "joinImages": {
+            new PdfCL().joinImages(srcs, dest);
+            break;
+        }
+        case "autoCrop": {
+            info.danbecker.pdfcl.Image.autoCrop(srcs, dest, color, number, sourceFinder(SourceFinder.Content.IMAGE), incremental);
+            break;
+        }
+        case "pdfTree": {
+            new PdfCL().pdfTree(srcs, dest);
+            break;
+        }
+        case "stats": {
+            PdfStats.stats(srcs, dest, number, sourceFinder(SourceFinder.Content.PDF));
+            break;
+        }
+        case "watermark": {
+            Watermark.watermark(srcs, dest, watermark, color, number, appendMode, sourceFinder(SourceFinder.Content.PDF));
+            break;
+        }
+        case "pdfAutoCrop": {
+            PdfAutoCrop.pdfAutoCrop(srcs, dest, color, number, list, sourceFinder(SourceFinder.Content.PDF));
+            break;
+        }
+        case "extractText": {
+            TextExtraction.extractText(srcs, dest, sourceFinder(SourceFinder.Content.PDF));
+            break;
+        }
+        case "search": {
+            TextIndex.search(dest, query, number);
+            break;
+        }
+        case "generate": {
+            PdfGenerator.generate(dest, number, list);
+            break;
+        }
+        default: {
+            LOGGER.info("verb \"" + verb + "\" is unknown");
+        }
+        }
+    }
+
     /** Command line options for this application. */
     public static void parseOptions(String[] args) throws ParseException, IOException {
         // Parse the command line arguments
@@ -151,6 +205,18 @@ public class PdfCL {
         options.addOption("s", "src", true, "list of comma-separated input PDF files");
         options.addOption("d", "dest", true, "output PDF file");
         options.addOption("c", "color", true, "comma separated ARGB used for image processing");
+        options.addOption("z", "lazy", false, "inspect stream dictionaries only, without decoding stream data, so XML metadata (XMP) content is not dumped");
+        options.addOption("r", "recursive", false, "include files in subdirectories of source directories");
+        options.addOption("g", "glob", true, "only include directory files whose names match the glob, such as *.{jpg,png}");
+        options.addOption("w", "watermark", true, "watermark text, or the path of an image file");
+        options.addOption("i", "incremental", false, "keep a manifest in dest and only process changed or new sources");
+        options.addOption("a", "appendMode", false, "write changes to the source as an incremental update");
+        options.addOption(Option.builder("m").longOpt("metrics").hasArg().optionalArg(true)
+            .desc("gather counters and stage timings, log them as JSON or write them to the optional file").build());
+        options.addOption("q", "query", true, "terms a page must all contain to be found by search");
+        options.addOption("b", "budget", true, "memory budget for decoded images in megabytes, default half the maximum heap");
+        options.addOption(Option.builder("y").longOpt("sync").hasArg().optionalArg(true)
+            .desc("force image outputs to disk in batches of the optional size, default " + OutputStage.DEFAULT_SYNC_BATCH + ", before renaming them").build());
 
         final CommandLineParser cliParser = new DefaultParser();
         final CommandLine line = cliParser.parse(options, args);
@@ -202,6 +268,56 @@ public class PdfCL {
             color = line.getOptionValue("color");
             LOGGER.info("color=" + color);
         }
+        lazy = line.hasOption("lazy");
+        if (lazy) {
+            LOGGER.info("lazy=" + lazy);
+        }
+        recursive = line.hasOption("recursive");
+        if (recursive) {
+            LOGGER.info("recursive=" + recursive);
+        }
+        if (line.hasOption("glob")) {
+            glob = line.getOptionValue("glob");
+            LOGGER.info("glob=" + glob);
+        }
+        if (line.hasOption("watermark")) {
+            watermark = line.getOptionValue("watermark");
+            LOGGER.info("watermark=" + watermark);
+        }
+        appendMode = line.hasOption("appendMode");
+        if (appendMode) {
+            LOGGER.info("appendMode=" + appendMode);
+        }
+        incremental = line.hasOption("incremental");
+        if (incremental) {
+            LOGGER.info("incremental=" + incremental);
+        }
+        metrics = line.hasOption("metrics");
+        if (metrics) {
+            metricsDest = line.getOptionValue("metrics");
+            LOGGER.info("metrics=" + (null == metricsDest ? "log" : metricsDest));
+        }
+        if (line.hasOption("query")) {
+            query = line.getOptionValue("query");
+            LOGGER.info("query=" + query);
+        }
+        if (line.hasOption("budget")) {
+            budget = Long.parseLong(line.getOptionValue("budget")) << 20;
+            if (budget <= 0) {
+                throw new ParseException("budget must be a positive number of megabytes, not " + line.getOptionValue("budget"));
+            }
+            MemoryBudget.setGlobal(budget);
+        }
+        if (line.hasOption("sync")) {
+            String option = line.getOptionValue("sync");
+            syncBatch = null == option ? OutputStage.DEFAULT_SYNC_BATCH : Integer.parseInt(option);
+            LOGGER.info("sync=" + syncBatch);
+        }
+    }
+
+    /** Finds source files of the given content with the recursive and glob options. */
+    public static SourceFinder sourceFinder(SourceFinder.Content content) {
+        return new SourceFinder(content).recursive(recursive).glob(glob);
     }
 
     /** Make/create directory structure for given file name or path. */
@@ -209,6 +325,28 @@ public class PdfCL {
         return new File(dest).getParentFile().mkdirs();
     }
 
+    /** Counts the length of a source file as bytes read when metrics are active. Returns the length. */
+    public static long read(String src) {
+        return read(Metrics.isActive() ? new File(src).length() : 0);
+    }
+
+    /** Counts bytes read when metrics are enabled. Returns the bytes. */
+    public static long read(long bytes) {
+        Metrics.add(Metrics.Counter.BYTES_READ, bytes);
+        return bytes;
+    }
+
+    /** Counts the length of an output file as bytes written when metrics are active. Returns the length. */
+    public static long written(String dest) {
+        return written(Metrics.isActive() ? new File(dest).length() : 0);
+    }
+
+    /** Counts bytes written when metrics are enabled. Returns the bytes. */
+    public static long written(long bytes) {
+        Metrics.add(Metrics.Counter.BYTES_WRITTEN, bytes);
+        return bytes;
+    }
+
     /** States if file exists, is readable, and is non-zero length. */
     public static boolean fileReadable(String dest) {
         File src = new File(dest);
@@ -241,19 +379,24 @@ public class PdfCL {
 
         // Add pages to the document
         AreaBreak areaBreak = new AreaBreak(AreaBreakType.NEXT_PAGE);
-        if (numPages == 0) {
-            document.add(new Paragraph("")); // documents cannot be blank when closed
-        } else {
-            for (int i = 0; i < numPages; i++) {
-                document.add(new Paragraph("Page" + Integer.toString(i + 1)));
-                if (i + 1 < numPages) {
-                    document.add(areaBreak);
+        Metrics.run("create.layout", () -> {
+            if (numPages == 0) {
+                document.add(new Paragraph("")); // documents cannot be blank when closed
+            } else {
+                for (int i = 0; i < numPages; i++) {
+                    document.add(new Paragraph("Page" + Integer.toString(i + 1)));
+                    if (i + 1 < numPages) {
+                        document.add(areaBreak);
+                    }
                 }
             }
-        }
+        });
 
         // Close document
-        document.close();
+        try (Metrics.Timer timer = Metrics.time("create.write")) {
+            document.close();
+            timer.bytes(written(dest));
+        }
         LOGGER.info("\"" + dest + "\" created");
     }
 
@@ -267,18 +410,23 @@ public class PdfCL {
      */
     public void appendPdf(String[] srcs, String dest, List<Integer> pagesToMerge) throws IOException {
         // Check and optionally copy or create destination file
-        PdfDocument resultDoc = null;
+        PdfDocument resultDoc;
         mkdirs(dest);
         File destFile = new File(dest);
         if (destFile.exists() && destFile.length() > 0) {
             LOGGER.info("File \"" + destFile + "\" exists=" + destFile.exists() + ", canRead=" + destFile.canRead() + ", length="
                     + destFile.length());
-            byte[] byteArray = Files.readAllBytes(destFile.toPath());
-            PdfDocument originalDoc = new PdfDocument(
-               new PdfReader(new RandomAccessSourceFactory().createSource(byteArray), new ReaderProperties()));
+            PdfDocument originalDoc;
+            try (Metrics.Timer timer = Metrics.time("append.parse")) {
+                byte[] byteArray = Files.readAllBytes(destFile.toPath());
+                timer.bytes(read(byteArray.length));
+                originalDoc = new PdfDocument(
+                   new PdfReader(new RandomAccessSourceFactory().createSource(byteArray), new ReaderProperties()));
+            }
             resultDoc = new PdfDocument(new PdfWriter(dest));
             LOGGER.info("Original numPages=" + originalDoc.getNumberOfPages());
-            originalDoc.copyPagesTo( 1, originalDoc.getNumberOfPages(), resultDoc );
+            Metrics.time("append.copy", () -> originalDoc.copyPagesTo( 1, originalDoc.getNumberOfPages(), resultDoc ));
+            Metrics.add(Metrics.Counter.PAGES_COPIED, originalDoc.getNumberOfPages());
             originalDoc.close(); 
         } else {
             resultDoc = new PdfDocument(new PdfWriter(dest));
@@ -288,19 +436,28 @@ public class PdfCL {
         // Copy 
         for (String src : srcs) {
             LOGGER.info("Source file=" + src);
-            PdfDocument srcDoc = new PdfDocument(new PdfReader(src));
+            PdfDocument srcDoc;
+            try (Metrics.Timer timer = Metrics.time("append.parse")) {
+                timer.bytes(read(src));
+                srcDoc = new PdfDocument(new PdfReader(src));
+            }
             int numPages = srcDoc.getNumberOfPages();
             LOGGER.info("NumPages=" + numPages);
             LOGGER.info("Pages=" + pagesToMerge);
             if ( null != pagesToMerge ) {
-               srcDoc.copyPagesTo(pagesToMerge, resultDoc);
+               Metrics.time("append.copy", () -> srcDoc.copyPagesTo(pagesToMerge, resultDoc));
+               Metrics.add(Metrics.Counter.PAGES_COPIED, pagesToMerge.size());
             } else {
-               srcDoc.copyPagesTo(1, srcDoc.getNumberOfPages(), resultDoc);                
+               Metrics.time("append.copy", () -> srcDoc.copyPagesTo(1, numPages, resultDoc));
+               Metrics.add(Metrics.Counter.PAGES_COPIED, numPages);
             }
             srcDoc.close();
         } // srcs
 
-        resultDoc.close();        
+        try (Metrics.Timer timer = Metrics.time("append.write")) {
+            resultDoc.close();        
+            timer.bytes(written(dest));
+        }
     }
 
     /** Reverse all pages in the given source files. */
@@ -340,28 +497,51 @@ public class PdfCL {
         PdfMerger merger = new PdfMerger(pdfDest);
         for (String src : srcs) {
             LOGGER.info("Source file=" + src);
-            PdfDocument pdfSrc = new PdfDocument(new PdfReader(src));
-            merger.merge(pdfSrc, 1, pdfSrc.getNumberOfPages());
+            PdfDocument pdfSrc;
+            try (Metrics.Timer timer = Metrics.time("concatenate.parse")) {
+                timer.bytes(read(src));
+                pdfSrc = new PdfDocument(new PdfReader(src));
+            }
+            Metrics.time("concatenate.copy", () -> merger.merge(pdfSrc, 1, pdfSrc.getNumberOfPages()));
+            Metrics.add(Metrics.Counter.PAGES_COPIED, pdfSrc.getNumberOfPages());
             pdfSrc.close();
         }
 
-        pdfDest.close();
+        try (Metrics.Timer timer = Metrics.time("concatenate.write")) {
+            pdfDest.close();
+            timer.bytes(written(dest));
+        }
     }
     
     /** 
      * Splits images in a given set of files/pages to output path.
      * @param srcs
      * @param dest
-     * @param pagesToMerge
+     * @param pagesToMerge pages to split, null or empty for all pages
      * @throws IOException
      */
     public void splitImages(String[] srcs, String dest, List<Integer> pagesToMerge) throws IOException {
         // Treat dest as a path and make dirs
         new File(dest).mkdirs();
 
+        boolean allPages = null == pagesToMerge || pagesToMerge.isEmpty();
+        JobManifest manifest = incremental ? JobManifest.load(dest, "splitImages" + (allPages ? "" : " pages=" + pagesToMerge)) : null;
+
         // Copy 
+        // Recorded once the outputs are written.
+        Map<Path,List<Path>> produced = new LinkedHashMap<>();
         for (String src : srcs) {
-            PdfDocument srcDoc = new PdfDocument(new PdfReader(src));
+            if ( null != manifest && manifest.upToDate(Paths.get(src))) {
+                LOGGER.info("Source file=" + src + " is up to date");
+                continue;
+            }
+            List<Path> outputs = new ArrayList<>();
+            boolean failed = false;
+            PdfDocument srcDoc;
+            try (Metrics.Timer timer = Metrics.time("splitImages.parse")) {
+                timer.bytes(read(src));
+                srcDoc = new PdfDocument(new PdfReader(src));
+            }
             LOGGER.info("Source file=" + src + ", numPages=" + srcDoc.getNumberOfPages() + ", numObjects=" + srcDoc.getNumberOfPdfObjects());
 
             // Access via object number
@@ -388,6 +568,9 @@ public class PdfCL {
 
             // Access via page number
             for (int i = 1; i <= srcDoc.getNumberOfPages(); i++) {
+               if ( !allPages && !pagesToMerge.contains(i) ) {
+                   continue;
+               }
                PdfPage page = srcDoc.getPage(i);
                PdfResources resources = page.getResources();
 
@@ -396,33 +579,104 @@ public class PdfCL {
                for (PdfName name : names) {
                    LOGGER.info("Page " + i + ", resource name=" + name.toString() + ", typeName=" + getNameString(name));
                    PdfImageXObject image = resources.getImage(name);
-                   if ( null != image ) {
-                      outputImage( i, name, image );                     
+                   File output;
+                   try {
+                      output = outputImage( dest, i, name, image );
+                   } catch (IOException | RuntimeException e) {
+                      LOGGER.error("Source file=" + src + ", page " + i + ", resource name=" + name + " cannot be output e=" + e);
+                      failed = true;
+                      continue;
+                   }
+                   if ( null != output ) {
+                      outputs.add( output.toPath() );
                    }
                }
             } // pages            
            srcDoc.close();
+           // A source with failed images is not recorded, so the next incremental run retries it.
+           if ( null != manifest && !failed ) {
+               produced.put(Paths.get(src), outputs);
+           }
         } // srcs
+        if ( null != manifest ) {
+            manifest.recordWritten(produced, OutputStage.flush());
+            manifest.removeStale(srcs);
+            manifest.save();
+        }
+    }
+
+    /** 
+     * Output file from given Image. Returns the file written, or null for no image.
+     * The decode is admitted against the memory budget. Images too large for the budget are written
+     * from their stream data without decoding, or skipped if that is still too large.
+     */
+    public static File outputImage( int element, PdfName pdfName, PdfImageXObject image ) throws IOException {
+        return outputImage( dest, element, pdfName, image );
     }
 
-    /** Output file from given Image */
-    public static void outputImage( int element, PdfName pdfName, PdfImageXObject image ) throws IOException {
+    /** Output file from given Image into the dest directory. Returns the file written, or null for no image. */
+    @SuppressWarnings("try") // reservations are held for their scope only
+    public static File outputImage( String dest, int element, PdfName pdfName, PdfImageXObject image ) throws IOException {
         if ( null != image ) {
             LOGGER.info("Page " + element + ", resource name=" + pdfName.toString() + 
                     ", size=" + image.getWidth() +"x" + image.getHeight() +
                     ", type=" + image.identifyImageType() 
                     );   
             File outputfile = new File(dest, "e" + element + "-" + pdfName.getValue() + "." + image.identifyImageType().toString().toLowerCase() );
-            BufferedImage bi = image.getBufferedImage();
-            // ImageIO.write(bi, "jpg", outputfile); // TIF requires Java 9
-            ImageIO.write(bi, image.identifyImageFileExtension().toLowerCase(), outputfile);
+            MemoryBudget budget = MemoryBudget.global();
+            // The decoded stream data and the BufferedImage are held at once.
+            long bytes = 2 * MemoryBudget.imageBytes( (long) image.getWidth(), (long) image.getHeight() );
+            byte [] encoded = null;
+            if ( budget.fits( bytes )) {
+                try (MemoryBudget.Reservation reservation = budget.reserve( bytes )) {
+                    encoded = encodeImage( element, pdfName, image );
+                }
+            } else {
+                // Compressed images are copied as they are, others are built from their decoded stream data.
+                ImageType type = image.identifyImageType();
+                boolean copied = ImageType.JPEG == type || ImageType.JPEG2000 == type || ImageType.JBIG2 == type;
+                long streamBytes = copied ? image.getPdfObject().getLength() : bytes / 2;
+                if ( !budget.fits( streamBytes )) {
+                    LOGGER.error( "Element=" + element + ", name=" + pdfName + " size=" + image.getWidth() +"x" + image.getHeight()
+                        + " exceeds memory budget " + budget.getTotal() + ", skipped" );
+                    return null;
+                }
+                LOGGER.info( "Element=" + element + ", name=" + pdfName + " exceeds memory budget, written from stream data" );
+                try (MemoryBudget.Reservation reservation = budget.reserve( streamBytes );
+                    Metrics.Timer timer = Metrics.time("splitImages.copy")) {
+                    encoded = image.getImageBytes( true );
+                    timer.bytes(encoded.length);
+                }
+            }
+            if ( null == encoded ) {
+                return null;
+            }
+            OutputStage.write(outputfile.toPath(), encoded);
             LOGGER.info( "Output " + outputfile.getName());
+            return outputfile;
         } else {
             LOGGER.info( "Element=" + element + ", name=" + pdfName + "image=null");            
         }
-        
+        return null;
     }
     
+    /** Decodes the image and encodes it in the file format of its type. Returns null when there is no writer. */
+    protected static byte[] encodeImage( int element, PdfName pdfName, PdfImageXObject image ) throws IOException {
+        BufferedImage bi = Metrics.time("splitImages.decode", () -> image.getBufferedImage());
+        Metrics.increment(Metrics.Counter.IMAGES_DECODED);
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream( OUTPUT_BUFFER_SIZE );
+        try (Metrics.Timer timer = Metrics.time("splitImages.encode")) {
+            // ImageIO.write(bi, "jpg", outputfile); // TIF requires Java 9
+            if ( !ImageIO.write(bi, image.identifyImageFileExtension().toLowerCase(), encoded)) {
+                LOGGER.info( "Element=" + element + ", name=" + pdfName + " no writer for " + image.identifyImageFileExtension());
+                return null;
+            }
+            Metrics.increment(Metrics.Counter.IMAGES_ENCODED);
+            timer.bytes(encoded.size());
+        }
+        return encoded.toByteArray();
+    }
+
     public static String getNameString( PdfName pdfName ) {
         if ( null == pdfName ) {
             return "null name";
@@ -447,8 +701,33 @@ public class PdfCL {
     }
 
     /** Adds a list of files or contents of directories as images to an destination pPDF. */
-    protected void joinImages(String[] srcs, String dest ) throws Exception {
+    public void joinImages(String[] srcs, String dest ) throws Exception {
+        joinImages(srcs, dest, sourceFinder(SourceFinder.Content.ITEXT_IMAGE));
+    }
+
+    /** Adds the image files found by the finder, in order, to an destination PDF. */
+    protected void joinImages(String[] srcs, String dest, SourceFinder finder ) throws Exception {
         mkdirs(dest);        
+        // One output from many sources, so any change rebuilds it.
+        JobManifest manifest = null;
+        List<Path> inputFiles = null;
+        if ( incremental ) {
+            manifest = JobManifest.load(dest, "joinImages");
+            inputFiles = finder.list(srcs);
+            if ( inputFiles.isEmpty() ) {
+                // A PDF needs a page, so keep any earlier dest and its manifest.
+                LOGGER.info("No image files found in " + Arrays.toString(srcs) + ", \"" + dest + "\" not written");
+                return;
+            }
+            boolean upToDate = Files.exists(Paths.get(dest)) && manifest.sameSources(inputFiles);
+            for ( Path inputFile : inputFiles ) {
+                upToDate &= manifest.upToDate(inputFile);
+            }
+            if ( upToDate ) {
+                LOGGER.info("File \"" + dest + "\" is up to date");
+                return;
+            }
+        }
         PdfDocument pdfDoc = new PdfDocument(new PdfWriter(dest));
         Document doc = new Document(pdfDoc);
         // Document doc = new Document(pdfDoc, PageSize.LETTER);
@@ -456,48 +735,53 @@ public class PdfCL {
         LOGGER.info("page size=" + pageSize.toString()); 
         
         // Copy 
-        for (String src : srcs) {
-            File fileSrc = new File( src );
-            if ( fileSrc.exists() && fileSrc.canRead()) {
-                if ( fileSrc.isDirectory() ) {
-                    File [] contents = fileSrc.listFiles( new ITextImageFileFilter() );
-                    for ( File inputFile : contents) {
-                        if ( inputFile.exists() && inputFile.canRead()) {
-                            Image image = new Image(ImageDataFactory.create(inputFile.getPath()));
-                            float scale = 1.0f;
-                            if ( image.getImageWidth() > pageSize.getWidth() || image.getImageHeight() > pageSize.getHeight()) {
-                                float xScale = pageSize.getWidth() / image.getImageWidth();
-                                float yScale = pageSize.getHeight() / image.getImageHeight();
-                                if ( xScale < yScale ) {
-                                    scale = xScale;
-                                } else {                                    
-                                    scale = yScale;
-                                }
-                                // LOGGER.info("x/y/scale=" + xScale + "/" + yScale + "/" + scale ); 
-                                image.scale( scale,  scale );
-                            }
-                            // float maxWidth = PageSize.A4.getWidth() - pageMargin;
-                            LOGGER.info("Joining file \"" + inputFile.getPath() + "\"" + 
-                               ", size=" + image.getImageWidth() + "x" + image.getImageHeight() +
-                               ", scaled=" + image.getImageScaledWidth() + "x" + image.getImageScaledHeight());
-                            doc.add(image);
-                        } else {
-                            LOGGER.info("File \"" + inputFile.getName() + "\" exists=" + inputFile.exists() + ", canRead=" + inputFile.canRead() );                            
-                        }
-                    }
-                } else {
-                    LOGGER.info("Joining file \"" + fileSrc.getPath() + "\""  );
-                    Image image = new Image(ImageDataFactory.create(fileSrc.getPath()));
-                    // image.setAutoScale(true);
-                    doc.add(image);
-                }
-            } else {
-                LOGGER.info("File \"" + fileSrc + "\" exists=" + fileSrc.exists() + ", canRead=" + fileSrc.canRead() );
+        if ( null == manifest ) {
+            finder.forEach(srcs, (root, inputFile) -> addImage(doc, pageSize, inputFile));
+        } else {
+            for ( Path inputFile : inputFiles ) {
+                addImage(doc, pageSize, inputFile);
+                manifest.record(inputFile, Arrays.asList(Paths.get(dest)));
             }
-        } // srcs
+        }
         
-        doc.close();
-        pdfDoc.close();
+        try (Metrics.Timer timer = Metrics.time("joinImages.write")) {
+            doc.close();
+            pdfDoc.close();
+            timer.bytes(written(dest));
+        }
+        if ( null != manifest ) {
+            // After the close, so dest is never removed while it is open.
+            // Dest holds only the inputs of this run, so entries of other sources no longer apply.
+            manifest.removeUnseen();
+            manifest.save();
+        }
+    }
+
+    /** Adds one image to the document, scaled down to fit the page. */
+    protected static void addImage(Document doc, Rectangle pageSize, Path inputFile) throws IOException {
+        Image image;
+        try (Metrics.Timer timer = Metrics.time("joinImages.decode")) {
+            timer.bytes(read(inputFile.toString()));
+            image = new Image(ImageDataFactory.create(inputFile.toString()));
+            Metrics.increment(Metrics.Counter.IMAGES_DECODED);
+        }
+        float scale = 1.0f;
+        if ( image.getImageWidth() > pageSize.getWidth() || image.getImageHeight() > pageSize.getHeight()) {
+            float xScale = pageSize.getWidth() / image.getImageWidth();
+            float yScale = pageSize.getHeight() / image.getImageHeight();
+            if ( xScale < yScale ) {
+                scale = xScale;
+            } else {                                    
+                scale = yScale;
+            }
+            // LOGGER.info("x/y/scale=" + xScale + "/" + yScale + "/" + scale ); 
+            image.scale( scale,  scale );
+        }
+        // float maxWidth = PageSize.A4.getWidth() - pageMargin;
+        LOGGER.info("Joining file \"" + inputFile + "\"" + 
+           ", size=" + image.getImageWidth() + "x" + image.getImageHeight() +
+           ", scaled=" + image.getImageScaledWidth() + "x" + image.getImageScaledHeight());
+        Metrics.time("joinImages.layout", () -> doc.add(image));
     }
 
     /** 
@@ -513,22 +797,25 @@ public class PdfCL {
 
         // Copy 
         for (String src : srcs) {
-            PdfDocument srcDoc = new PdfDocument(new PdfReader(src));
+            PdfDocument srcDoc;
+            try (Metrics.Timer timer = Metrics.time("pdfTree.parse")) {
+                timer.bytes(read(src));
+                srcDoc = new PdfDocument(new PdfReader(src));
+            }
             LOGGER.info("Source file=" + src + ", numPages=" + srcDoc.getNumberOfPages() + ", numObjects=" + srcDoc.getNumberOfPdfObjects());
 
-            PdfDictionary catalog = srcDoc.getCatalog().getPdfObject();
             // PdfDictionary structTreeRoot = catalog.getAsDictionary(PdfName.StructTreeRoot);            
-            // visit(structTreeRoot,0);
-            visit(new HashSet<PdfObject>(), 0, PdfName.Catalog, catalog, 0);
+            // new PdfTreeWalker().walk(PdfName.StructTreeRoot, structTreeRoot, PdfCL::visit);
+            Metrics.time("pdfTree.walk", () -> new PdfTreeWalker().walk(srcDoc, PdfCL::visit));
             
             srcDoc.close();
         } // srcs
     }
 
-    /** Visit each object in the PdfObject tree, by recursing through dictionaries and arrays. */
-    public static void visit( Set<PdfObject> visited, int element, PdfName pdfName, PdfObject pdfObject, int level ) {
+    /** Log one object in the PdfObject tree. The PdfTreeWalker descends into dictionaries and arrays. */
+    public static PdfTreeVisitor.Result visit( int element, PdfName pdfName, PdfObject pdfObject, int level ) {
         if ( null == pdfObject) {
-            return;
+            return PdfTreeVisitor.Result.SKIP_CHILDREN;
         }
         
         StringBuffer prefix = new StringBuffer();
@@ -542,10 +829,13 @@ public class PdfCL {
             LOGGER.info( prefix.toString() + "pdfName=" + pdfName.getValue() + ", values=" 
                + ((PdfNumber)pdfBox.get(0)).getValue() + "," + ((PdfNumber)pdfBox.get(1)).getValue() + ","
                + ((PdfNumber)pdfBox.get(2)).getValue() + "," + ((PdfNumber)pdfBox.get(3)).getValue() );
+            return PdfTreeVisitor.Result.SKIP_CHILDREN;
         } else if ( pdfObject.isStream() ) {
             PdfStream pdfStream = (PdfStream) pdfObject;
             PdfName subtype = pdfStream.getAsName(PdfName.Subtype);
-            if (PdfName.Image.equals(subtype)) {
+            if (lazy) {
+                LOGGER.info( prefix.toString() + "pdfName=" + pdfName.getValue() + ", object" + pdfObjectString( pdfObject) + streamHeaderString( pdfStream ));
+            } else if (PdfName.Image.equals(subtype)) {
                 PdfImageXObject image = new PdfImageXObject(pdfStream);
                 LOGGER.info( prefix.toString() + "pdfName=" + pdfName.getValue() + ", object" + pdfObjectString( pdfObject) + " (" + image.getWidth() + "x" + image.getHeight() + "), type=" + image.identifyImageType().toString());
             } else if (PdfName.Form.equals(subtype)) {
@@ -561,26 +851,9 @@ public class PdfCL {
         } else if ( pdfObject.isDictionary() ) {
             PdfDictionary pdfDictionary = (PdfDictionary) pdfObject;
             LOGGER.info(  prefix.toString() + "pdfName=" + pdfName.getValue() + ", object" + pdfObjectString( pdfObject) + ", size=" + pdfDictionary.size());
-            Set<Map.Entry<PdfName,PdfObject>> entries = pdfDictionary.entrySet();
-            int i = 0;
-            for ( Map.Entry<PdfName,PdfObject> entry: entries) {
-                PdfName key = (PdfName) entry.getKey();
-                PdfObject value = (PdfObject) entry.getValue();
-                if ( !visited.contains( value )) {
-                    visited.add(value);
-                    visit(visited, ++i, key, value, level + 1);
-                }
-            }
         } else if ( pdfObject.isArray() ) {
             PdfArray pdfArray = ((PdfArray)pdfObject);
             LOGGER.info(  prefix.toString() + "pdfName=" + pdfName.getValue()  + ", object=" + pdfObjectString( pdfObject) + ", size=" + pdfArray.size());                
-            for ( int i = 0; i < pdfArray.size(); i++  ) {
-                PdfObject value = pdfArray.get(i);
-                if ( !visited.contains( value )) {
-                    visited.add(value);                
-                    visit( visited, i, PdfName.Obj, pdfArray.get(i), level + 1);
-                }
-            }
         } else if ( pdfObject.isString() ) {
             LOGGER.info(  prefix.toString() + "pdfName=" + pdfName.getValue()  + ", object=" + pdfObjectString( pdfObject) + ", string=" + ((PdfString)pdfObject).getValue());                
         } else if ( pdfObject.isName() ) {
@@ -597,26 +870,64 @@ public class PdfCL {
         } else {
             LOGGER.info(  prefix.toString() + "pdfName=" + pdfName.getValue() + ", object=" + pdfObjectString( pdfObject));                
         }     
+        return PdfTreeVisitor.Result.CONTINUE;
     }
     
+    /** 
+     * Describes a stream from its dictionary alone, so the stream data is never read or decoded.
+     * Images report width, height and bits, forms report the bounding box size. The subtype is
+     * reported by pdfObjectString. XML streams such as XMP metadata are data, so their content is not shown.
+     */
+    public static String streamHeaderString( PdfStream pdfStream ) {
+        StringBuilder sb = new StringBuilder();
+        PdfName subtype = pdfStream.getAsName(PdfName.Subtype);
+        if (PdfName.Image.equals(subtype)) {
+            PdfNumber width = pdfStream.getAsNumber(PdfName.Width);
+            PdfNumber height = pdfStream.getAsNumber(PdfName.Height);
+            sb.append(" (" + (null == width ? "?" : width.intValue()) + "x" + (null == height ? "?" : height.intValue()) + ")");
+            PdfNumber bits = pdfStream.getAsNumber(PdfName.BitsPerComponent);
+            if (null != bits) {
+                sb.append(", bits=" + bits.intValue());
+            }
+        } else if (PdfName.Form.equals(subtype)) {
+            PdfArray bBox = pdfStream.getAsArray(PdfName.BBox);
+            if (null != bBox && bBox.size() == 4) {
+                Rectangle rect = bBox.toRectangle();
+                sb.append(" (" + rect.getWidth() + "x" + rect.getHeight() + ")");
+            }
+        }
+        if (null != pdfStream.get(PdfName.Filter)) {
+            sb.append(", filter=" + filterString(pdfStream));
+        }
+        PdfNumber length = pdfStream.getAsNumber(PdfName.Length);
+        if (null != length) {
+            sb.append(", length=" + length.intValue());
+        }
+        return sb.toString();
+    }
+
+    /** Names the filter chain of a stream, "None" for unfiltered streams. */
+    public static String filterString(PdfStream pdfStream) {
+        PdfObject filter = pdfStream.get(PdfName.Filter);
+        if (null != filter && filter.isName()) {
+            return ((PdfName) filter).getValue();
+        } else if (null != filter && filter.isArray()) {
+            StringBuilder sb = new StringBuilder();
+            for (PdfObject item : (PdfArray) filter) {
+                if (item.isName()) {
+                    if (sb.length() > 0) sb.append(",");
+                    sb.append(((PdfName) item).getValue());
+                }
+            }
+            return sb.toString();
+        }
+        return "None";
+    }
+
     /** Convert a stream of XML to a String. */
     public static String pdfStreamXMLtoString( PdfStream pdfStream ) {
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        factory.setValidating(false);
-        factory.setIgnoringElementContentWhitespace(true);
         try {
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            ByteArrayInputStream bais = new ByteArrayInputStream(pdfStream.getBytes());
-            org.w3c.dom.Document doc = builder.parse(bais);
-            // Do something with the document here.
-            TransformerFactory tf = TransformerFactory.newInstance();
-            Transformer transformer = tf.newTransformer();
-            transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
-            StringWriter writer = new StringWriter();
-            transformer.transform(new DOMSource(doc), new StreamResult(writer));
-            // Replace new lines, returns, and whitespace before tags.
-            String xmlString = writer.getBuffer().toString().replaceAll("\n|\r", "").replaceAll("\\s+<", "<");
-            return xmlString;
+            return XmlCompactor.compact(pdfStream.getBytes());
         } catch (Exception e) {
             LOGGER.error("Exception parsing metadata e=" + e);
         }
@@ -0,0 +1,188 @@
+package info.danbecker.pdfcl;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.itextpdf.io.font.constants.StandardFonts;
+import com.itextpdf.io.image.ImageDataFactory;
+import com.itextpdf.kernel.font.PdfFont;
+import com.itextpdf.kernel.font.PdfFontFactory;
+import com.itextpdf.kernel.geom.PageSize;
+import com.itextpdf.kernel.geom.Rectangle;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfOutline;
+import com.itextpdf.kernel.pdf.PdfPage;
+import com.itextpdf.kernel.pdf.PdfWriter;
+import com.itextpdf.kernel.pdf.canvas.PdfCanvas;
+import com.itextpdf.kernel.pdf.navigation.PdfExplicitDestination;
+import com.itextpdf.kernel.pdf.xobject.PdfImageXObject;
+
+/**
+ * Generates synthetic PDFs for load testing, one document per worker thread.
+ *
+ * Unlike createPdf, pages are drawn directly on a PdfCanvas and flushed as soon as they are done,
+ * so memory stays flat for documents of millions of pages.
+ * The font and the optional image are created once per document and shared by every page.
+ * Outline sections are added every OUTLINE_INTERVAL pages, each with a chain of nested items.
+ *
+ * @author <a href="mailto://dan@danbecker.info">Dan Becker</a>
+ */
+public class PdfGenerator {
+    /** LOGGER */
+    public static final Logger LOGGER = LoggerFactory.getLogger(PdfGenerator.class);
+
+    public static final int OUTLINE_INTERVAL = 1000;
+    public static final int PROGRESS_INTERVAL = 100000;
+    public static final int BUFFER_SIZE = 1 << 20;
+
+    private final int numPages;
+    private final int imageEvery;
+    private final int outlineDepth;
+    private byte[] imageBytes;
+
+    /**
+     * @param numPages pages per document
+     * @param imageEvery draw the shared image on every nth page, 0 for no images
+     * @param outlineDepth depth of each outline section, 0 for no outlines
+     */
+    public PdfGenerator(int numPages, int imageEvery, int outlineDepth) {
+        this.numPages = numPages;
+        this.imageEvery = imageEvery;
+        this.outlineDepth = outlineDepth;
+    }
+
+    /**
+     * Generates documents concurrently.
+     * @param dest output file when generating one document ending in ".pdf", otherwise an output directory
+     * @param number pages per document
+     * @param list optional number of documents, image interval, and outline depth, for example 8,10,4
+     * @throws IOException
+     */
+    public static void generate(String dest, String number, List<Integer> list) throws IOException {
+        int numPages = Integer.parseInt(number);
+        int numDocs = list.size() > 0 ? list.get(0) : 1;
+        int imageEvery = list.size() > 1 ? list.get(1) : 0;
+        int outlineDepth = list.size() > 2 ? list.get(2) : 0;
+        PdfGenerator generator = new PdfGenerator(numPages, imageEvery, outlineDepth);
+
+        List<File> destFiles = new ArrayList<>();
+        if (1 == numDocs && dest.toLowerCase().endsWith(".pdf")) {
+            PdfCL.mkdirs(new File(dest).getAbsolutePath());
+            destFiles.add(new File(dest));
+        } else {
+            new File(dest).mkdirs();
+            for (int i = 1; i <= numDocs; i++) {
+                destFiles.add(new File(dest, String.format("generated%04d.pdf", i)));
+            }
+        }
+        LOGGER.info("Generating " + numDocs + " documents of " + numPages + " pages, imageEvery=" + imageEvery
+            + ", outlineDepth=" + outlineDepth);
+
+        int threads = Math.min(numDocs, Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (File destFile : destFiles) {
+                futures.add(executor.submit(() -> {
+                    generator.generate(destFile);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted generating documents", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Exception generating documents", e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /** Generates one document. */
+    public void generate(File destFile) throws IOException {
+        try (Metrics.Timer timer = Metrics.time("generate.document")) {
+            // Closed on failure too, so the file and its stream are released.
+            try (PdfDocument pdf = new PdfDocument(new PdfWriter(new BufferedOutputStream(new FileOutputStream(destFile), BUFFER_SIZE)))) {
+                PdfFont font = PdfFontFactory.createFont(StandardFonts.HELVETICA);
+                PdfImageXObject image = imageEvery > 0 ? new PdfImageXObject(ImageDataFactory.create(imageBytes())) : null;
+                PdfOutline root = outlineDepth > 0 ? pdf.getOutlines(false) : null;
+
+                for (int i = 1; i <= numPages; i++) {
+                    PdfPage page = pdf.addNewPage(PageSize.A4);
+                    PdfCanvas canvas = new PdfCanvas(page);
+                    canvas.beginText().setFontAndSize(font, 12).moveText(36, 806).showText("Page" + i).endText();
+                    if (null != image && 0 == i % imageEvery) {
+                        canvas.addXObject(image, new Rectangle(36, 400, 523, 392));
+                    }
+                    canvas.release();
+                    if (null != root && 1 == i % OUTLINE_INTERVAL) {
+                        addSection(root, page, i);
+                    }
+                    page.flush();
+                    if (0 == i % PROGRESS_INTERVAL) {
+                        LOGGER.info("\"" + destFile + "\" pages=" + i);
+                    }
+                }
+                if (0 == numPages) {
+                    pdf.addNewPage(); // documents cannot be blank when closed
+                }
+            }
+            timer.bytes(PdfCL.written(destFile.getPath()));
+        }
+        LOGGER.info("\"" + destFile + "\" created");
+    }
+
+    /** Adds a section item with a chain of outlineDepth - 1 nested items, all pointing to the page. */
+    protected void addSection(PdfOutline root, PdfPage page, int pageNumber) {
+        PdfOutline parent = root;
+        String title = "Section " + (pageNumber / OUTLINE_INTERVAL + 1);
+        for (int level = 0; level < outlineDepth; level++) {
+            PdfOutline outline = parent.addOutline(title);
+            outline.addDestination(PdfExplicitDestination.createFit(page));
+            outline.setOpen(false);
+            parent = outline;
+            title = title + "." + 1;
+        }
+    }
+
+    /** A deterministic JPEG shared by all pages, generated once. */
+    protected synchronized byte[] imageBytes() throws IOException {
+        if (null == imageBytes) {
+            Random random = new Random(0x5EEDL);
+            BufferedImage bi = new BufferedImage(1024, 768, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = bi.createGraphics();
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, bi.getWidth(), bi.getHeight());
+            for (int i = 0; i < 64; i++) {
+                g.setColor(new Color(random.nextInt(0xFFFFFF)));
+                g.fillRect(random.nextInt(bi.getWidth()), random.nextInt(bi.getHeight()), 1 + random.nextInt(256), 1 + random.nextInt(256));
+            }
+            g.dispose();
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            ImageIO.write(bi, "jpg", baos);
+            imageBytes = baos.toByteArray();
+        }
+        return imageBytes;
+    }
+}
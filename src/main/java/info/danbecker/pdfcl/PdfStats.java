@@ -0,0 +1,226 @@
+package info.danbecker.pdfcl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.itextpdf.kernel.pdf.PdfDictionary;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfName;
+import com.itextpdf.kernel.pdf.PdfNumber;
+import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.kernel.pdf.PdfStream;
+
+/**
+ * Gathers statistics for many PDF files concurrently and reports them as CSV or JSON.
+ *
+ * Each worker opens its own PdfDocument and walks it with a PdfTreeWalker,
+ * reading stream dictionaries only, so no image data is decoded.
+ * A file which fails to open or parse is reported with its error and the batch continues.
+ *
+ * @author <a href="mailto://dan@danbecker.info">Dan Becker</a>
+ */
+public class PdfStats {
+    /** LOGGER */
+    public static final Logger LOGGER = LoggerFactory.getLogger(PdfStats.class);
+
+    /** Metrics for one source file. */
+    public static class FileStats {
+        public final String file;
+        public int pages;
+        public int objects;
+        public int images;
+        public long imageBytes;
+        public int fonts;
+        public boolean xmp;
+        /** Image stream bytes keyed by filter name */
+        public final Map<String,Long> bytesByFilter = new TreeMap<>();
+        public String error;
+
+        public FileStats(String file) {
+            this.file = file;
+        }
+    }
+
+    /**
+     * Gathers statistics for the source files or directories of PDF files.
+     * @param srcs files or directories
+     * @param dest report file, JSON if it ends with ".json", otherwise CSV
+     * @param number number of worker threads, defaults to the number of processors
+     * @throws IOException
+     */
+    public static void stats(String[] srcs, String dest, String number) throws IOException {
+        stats(srcs, dest, number, new SourceFinder(SourceFinder.Content.PDF));
+    }
+
+    /**
+     * Gathers statistics for the PDF files found by the finder.
+     * @param srcs files or directories
+     * @param dest report file, JSON if it ends with ".json", otherwise CSV
+     * @param number number of worker threads, defaults to the number of processors
+     * @param finder
+     * @throws IOException
+     */
+    public static void stats(String[] srcs, String dest, String number, SourceFinder finder) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        if ( null != number ) {
+            threads = Integer.parseInt(number);
+        }
+
+        LOGGER.info("Gathering stats with " + threads + " threads");
+        List<FileStats> results = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            // Workers start on the first files while the directories are still being listed.
+            List<Future<FileStats>> futures = new ArrayList<>();
+            finder.forEach(srcs, (root, srcFile) -> futures.add(executor.submit(() -> fileStats(srcFile.toFile()))));
+            for (Future<FileStats> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted gathering stats", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Exception gathering stats", e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+
+        PdfCL.mkdirs(new File(dest).getAbsolutePath());
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(new File(dest).toPath(), StandardCharsets.UTF_8))) {
+            if (dest.toLowerCase().endsWith(".json")) {
+                writeJson(writer, results);
+            } else {
+                writeCsv(writer, results);
+            }
+        }
+
+        int pages = 0, images = 0, errors = 0;
+        long imageBytes = 0;
+        for (FileStats result : results) {
+            pages += result.pages;
+            images += result.images;
+            imageBytes += result.imageBytes;
+            if (null != result.error) {
+                errors++;
+            }
+        }
+        LOGGER.info("\"" + dest + "\" files=" + results.size() + ", errors=" + errors + ", pages=" + pages
+            + ", images=" + images + ", imageBytes=" + imageBytes);
+    }
+
+    /** Gathers metrics for one file. Exceptions and errors are recorded in the result rather than thrown. */
+    public static FileStats fileStats(File srcFile) {
+        FileStats stats = new FileStats(srcFile.getPath());
+        try (PdfDocument srcDoc = open(srcFile)) {
+            stats.pages = srcDoc.getNumberOfPages();
+            stats.objects = srcDoc.getNumberOfPdfObjects();
+            stats.xmp = null != srcDoc.getCatalog().getPdfObject().getAsStream(PdfName.Metadata);
+            Metrics.time("stats.walk", () -> new PdfTreeWalker().walk(srcDoc, (element, pdfName, pdfObject, level) -> {
+                if (pdfObject.isStream()) {
+                    PdfStream pdfStream = (PdfStream) pdfObject;
+                    if (PdfName.Image.equals(pdfStream.getAsName(PdfName.Subtype))) {
+                        PdfNumber length = pdfStream.getAsNumber(PdfName.Length);
+                        long bytes = null == length ? 0 : length.longValue();
+                        stats.images++;
+                        stats.imageBytes += bytes;
+                        stats.bytesByFilter.merge(PdfCL.filterString(pdfStream), bytes, Long::sum);
+                    }
+                } else if (pdfObject.isDictionary()) {
+                    if (PdfName.Font.equals(((PdfDictionary) pdfObject).getAsName(PdfName.Type))) {
+                        stats.fonts++;
+                    }
+                }
+                return PdfTreeVisitor.Result.CONTINUE;
+            }));
+            LOGGER.info("Source file=" + srcFile + ", numPages=" + stats.pages + ", images=" + stats.images);
+        } catch (Throwable e) {
+            // Errors such as OutOfMemoryError on one file are recorded too, rather than ending the batch.
+            stats.error = e.toString();
+            LOGGER.error("Source file=" + srcFile + ", exception=" + e);
+        }
+        return stats;
+    }
+
+    private static PdfDocument open(File srcFile) throws IOException {
+        try (Metrics.Timer timer = Metrics.time("stats.parse")) {
+            timer.bytes(PdfCL.read(srcFile.getPath()));
+            return new PdfDocument(new PdfReader(srcFile));
+        }
+    }
+
+    public static void writeCsv(PrintWriter writer, List<FileStats> results) {
+        writer.println("file,pages,objects,images,imageBytes,fonts,xmp,bytesByFilter,error");
+        for (FileStats result : results) {
+            StringBuilder filters = new StringBuilder();
+            for (Map.Entry<String,Long> entry : result.bytesByFilter.entrySet()) {
+                if (filters.length() > 0) filters.append(";");
+                filters.append(entry.getKey() + "=" + entry.getValue());
+            }
+            writer.println(csvString(result.file) + "," + result.pages + "," + result.objects + "," + result.images + ","
+                + result.imageBytes + "," + result.fonts + "," + result.xmp + "," + csvString(filters.toString()) + ","
+                + csvString(null == result.error ? "" : result.error));
+        }
+    }
+
+    public static void writeJson(PrintWriter writer, List<FileStats> results) {
+        writer.println("[");
+        for (int i = 0; i < results.size(); i++) {
+            FileStats result = results.get(i);
+            StringBuilder filters = new StringBuilder();
+            for (Map.Entry<String,Long> entry : result.bytesByFilter.entrySet()) {
+                if (filters.length() > 0) filters.append(",");
+                filters.append(jsonString(entry.getKey()) + ":" + entry.getValue());
+            }
+            writer.print("  {\"file\":" + jsonString(result.file) + ",\"pages\":" + result.pages + ",\"objects\":" + result.objects
+                + ",\"images\":" + result.images + ",\"imageBytes\":" + result.imageBytes + ",\"fonts\":" + result.fonts
+                + ",\"xmp\":" + result.xmp + ",\"bytesByFilter\":{" + filters + "}"
+                + ",\"error\":" + (null == result.error ? "null" : jsonString(result.error)) + "}");
+            writer.println(i + 1 < results.size() ? "," : "");
+        }
+        writer.println("]");
+    }
+
+    /** Quotes a CSV field when it contains a delimiter, quote, or line break. */
+    public static String csvString(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    /** Quotes and escapes a JSON string. */
+    public static String jsonString(String value) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+            case '"': sb.append("\\\""); break;
+            case '\\': sb.append("\\\\"); break;
+            case '\n': sb.append("\\n"); break;
+            case '\r': sb.append("\\r"); break;
+            case '\t': sb.append("\\t"); break;
+            default:
+                if (c < 0x20) {
+                    sb.append(String.format("\\u%04x", (int) c));
+                } else {
+                    sb.append(c);
+                }
+            }
+        }
+        return sb.append("\"").toString();
+    }
+}
@@ -0,0 +1,31 @@
+package info.danbecker.pdfcl;
+
+import com.itextpdf.kernel.pdf.PdfName;
+import com.itextpdf.kernel.pdf.PdfObject;
+
+/**
+ * Callback for each object reached by a {@link PdfTreeWalker}.
+ * 
+ * @author <a href="mailto://dan@danbecker.info">Dan Becker</a>
+ */
+public interface PdfTreeVisitor {
+    /** Tells the walker how to proceed after an object is visited. */
+    enum Result {
+        /** Descend into the children of this object, if any. */
+        CONTINUE,
+        /** Do not descend into the children of this object. */
+        SKIP_CHILDREN,
+        /** Stop the walk. */
+        TERMINATE
+    }
+
+    /**
+     * Visit one object of the tree.
+     * @param element index of the object in its parent dictionary or array
+     * @param pdfName dictionary key of the object, or PdfName.Obj for array items
+     * @param pdfObject the object, never null
+     * @param level depth of the object, 0 for the root
+     * @return how the walk should proceed
+     */
+    Result visit( int element, PdfName pdfName, PdfObject pdfObject, int level );
+}
@@ -0,0 +1,139 @@
+package info.danbecker.pdfcl;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.itextpdf.kernel.pdf.PdfArray;
+import com.itextpdf.kernel.pdf.PdfDictionary;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfIndirectReference;
+import com.itextpdf.kernel.pdf.PdfName;
+import com.itextpdf.kernel.pdf.PdfObject;
+
+/**
+ * Walks the PdfObject tree depth first with an explicit stack rather than recursion,
+ * so deeply nested structure trees or long outline chains cannot overflow the thread stack.
+ * 
+ * Objects are reported in the same order a recursive walk would report them.
+ * Indirect objects are visited once, which also breaks cycles such as /Parent links.
+ * 
+ * @author <a href="mailto://dan@danbecker.info">Dan Becker</a>
+ */
+public class PdfTreeWalker {
+    /** One pending object on the stack. */
+    private static class Node {
+        int element;
+        final PdfName pdfName;
+        final PdfObject pdfObject;
+        final int level;
+        /** The dictionary holding this entry, which numbers its entries as they are first visited. */
+        final Node dictionary;
+        /** Entries of this dictionary numbered so far. */
+        int entries;
+
+        Node( int element, PdfName pdfName, PdfObject pdfObject, int level, Node dictionary ) {
+            this.element = element;
+            this.pdfName = pdfName;
+            this.pdfObject = pdfObject;
+            this.level = level;
+            this.dictionary = dictionary;
+        }
+    }
+
+    private final Set<PdfName> pruned = new HashSet<>();
+
+    /** Dictionary entries with any of these keys are not visited, nor are their children. */
+    public PdfTreeWalker prune( PdfName... names ) {
+        pruned.addAll( Arrays.asList( names ));
+        return this;
+    }
+
+    /** 
+     * Walks the document starting at the catalog.
+     * @return true if the walk completed, false if the visitor terminated it
+     */
+    public boolean walk( PdfDocument pdfDoc, PdfTreeVisitor visitor ) {
+        return walk( PdfName.Catalog, pdfDoc.getCatalog().getPdfObject(), visitor,
+            new LongHashSet( pdfDoc.getNumberOfPdfObjects() ));
+    }
+
+    /** 
+     * Walks the tree starting at the given root.
+     * @return true if the walk completed, false if the visitor terminated it
+     */
+    public boolean walk( PdfName rootName, PdfObject root, PdfTreeVisitor visitor ) {
+        return walk( rootName, root, visitor, new LongHashSet() );
+    }
+
+    private boolean walk( PdfName rootName, PdfObject root, PdfTreeVisitor visitor, LongHashSet visited ) {
+        if ( null == root ) {
+            return true;
+        }
+        Deque<Node> stack = new ArrayDeque<>();
+        stack.push( new Node( 0, rootName, root, 0, null ));
+        while ( !stack.isEmpty() ) {
+            Node node = stack.pop();
+            if ( !firstVisit( visited, node.pdfObject )) {
+                continue;
+            }
+            if ( null != node.dictionary ) {
+                // Entries count from 1, skipping those visited before, as the recursive walk numbered them.
+                node.element = ++node.dictionary.entries;
+            }
+            PdfTreeVisitor.Result result = visitor.visit( node.element, node.pdfName, node.pdfObject, node.level );
+            if ( PdfTreeVisitor.Result.TERMINATE == result ) {
+                return false;
+            }
+            if ( PdfTreeVisitor.Result.CONTINUE == result ) {
+                pushChildren( stack, node );
+            }
+        }
+        return true;
+    }
+
+    /** Pushes children in reverse so they pop in document order. */
+    private void pushChildren( Deque<Node> stack, Node node ) {
+        int level = node.level + 1;
+        if ( node.pdfObject.isDictionary() ) {
+            PdfDictionary pdfDictionary = (PdfDictionary) node.pdfObject;
+            Node [] children = new Node[ pdfDictionary.size() ];
+            int count = 0;
+            for ( Map.Entry<PdfName,PdfObject> entry : pdfDictionary.entrySet() ) {
+                PdfName key = entry.getKey();
+                PdfObject value = entry.getValue();
+                if ( null != value && !pruned.contains( key )) {
+                    children[ count ] = new Node( 0, key, value, level, node );
+                    count++;
+                }
+            }
+            for ( int i = count - 1; i >= 0; i-- ) {
+                stack.push( children[ i ] );
+            }
+        } else if ( node.pdfObject.isArray() ) {
+            PdfArray pdfArray = (PdfArray) node.pdfObject;
+            for ( int i = pdfArray.size() - 1; i >= 0; i-- ) {
+                PdfObject value = pdfArray.get( i );
+                if ( null != value ) {
+                    stack.push( new Node( i, PdfName.Obj, value, level, null ));
+                }
+            }
+        }
+    }
+
+    /** 
+     * Records an object as visited by its indirect reference.
+     * Direct objects cannot be shared or form cycles, so they are never recorded.
+     * @return true if the object is direct or its reference has not been seen before
+     */
+    private static boolean firstVisit( LongHashSet visited, PdfObject pdfObject ) {
+        PdfIndirectReference ref = pdfObject.getIndirectReference();
+        if ( null == ref ) {
+            return true;
+        }
+        return visited.add( LongHashSet.key( ref.getObjNumber(), ref.getGenNumber() ));
+    }
+}
@@ -0,0 +1,305 @@
+package info.danbecker.pdfcl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.imageio.ImageIO;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.itextpdf.io.image.ImageType;
+
+/**
+ * Finds source files in the given files and directories.
+ *
+ * Directories are listed one at a time with a DirectoryStream and sorted in natural order
+ * (so "img2" comes before "img10"). Sorting needs the whole listing, so the paths of one directory
+ * are buffered, along with the unvisited paths of its parents when recursive. The files are then
+ * sniffed one at a time, and each is handed to the consumer as soon as it passes, so work on the
+ * first files starts before the rest of the directory is read.
+ * Files in directories may be filtered by a glob on the file name and by sniffing their first bytes.
+ * Files named directly as sources are always passed on.
+ * Linked directories are followed, except back into a directory being listed, so link loops end.
+ *
+ * @author <a href="mailto://dan@danbecker.info">Dan Becker</a>
+ */
+public class SourceFinder {
+    /** LOGGER */
+    public static final Logger LOGGER = LoggerFactory.getLogger(SourceFinder.class);
+
+    /** Bytes read from the start of a file to sniff its content. */
+    public static final int SNIFF_LENGTH = 16;
+    /** PDF headers may be preceded by some junk, so look further for them. */
+    public static final int PDF_SNIFF_LENGTH = 1024;
+
+    /**
+     * The content a file in a directory must have to be passed on.
+     * IMAGE is an image ImageIO can decode, ITEXT_IMAGE is an image iText can add to a PDF.
+     */
+    public enum Content { ANY, IMAGE, ITEXT_IMAGE, PDF }
+
+    /** Image types the iText ImageDataFactory reads. It has no WMF support. */
+    public static final Set<ImageType> ITEXT_IMAGE_TYPES = Collections.unmodifiableSet(EnumSet.of(
+        ImageType.JPEG, ImageType.PNG, ImageType.GIF, ImageType.BMP, ImageType.TIFF, ImageType.JPEG2000, ImageType.JBIG2));
+
+    /** Image types with an ImageIO reader, such as TIFF from Java 9, or JPEG 2000 with a plugin. */
+    public static final Set<ImageType> IMAGEIO_TYPES = imageIOTypes();
+
+    /** Receives each source file as it is found. */
+    public interface SourceConsumer {
+        /**
+         * @param root the source file or directory given on the command line
+         * @param file the file found
+         */
+        void accept(Path root, Path file) throws IOException;
+    }
+
+    /** Compares strings with runs of digits compared by value. */
+    public static final Comparator<String> NATURAL_ORDER = SourceFinder::naturalCompare;
+
+    private final Content content;
+    private boolean recursive;
+    private PathMatcher glob;
+
+    public SourceFinder(Content content) {
+        this.content = content;
+    }
+
+    /** Descend into subdirectories. */
+    public SourceFinder recursive(boolean recursive) {
+        this.recursive = recursive;
+        return this;
+    }
+
+    /** Only pass on directory files whose names match the glob, such as "*.{jpg,png}". Null matches all. */
+    public SourceFinder glob(String pattern) {
+        this.glob = null == pattern ? null : FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        return this;
+    }
+
+    /**
+     * Passes each source file to the consumer in order.
+     * Unreadable sources are logged and skipped.
+     * @throws IOException
+     */
+    public void forEach(String[] srcs, SourceConsumer consumer) throws IOException {
+        for (String src : srcs) {
+            Path root = Paths.get(src);
+            if (Files.isDirectory(root) && Files.isReadable(root)) {
+                forEach(root, root, consumer, new HashSet<>());
+            } else if (Files.isRegularFile(root) && Files.isReadable(root)) {
+                consumer.accept(root, root);
+            } else {
+                LOGGER.info("File \"" + root + "\" exists=" + Files.exists(root) + ", canRead=" + Files.isReadable(root));
+            }
+        } // srcs
+    }
+
+    /** Returns all source files in order. Prefer forEach for large directories. */
+    public List<Path> list(String[] srcs) throws IOException {
+        List<Path> files = new ArrayList<>();
+        forEach(srcs, (root, file) -> files.add(file));
+        return files;
+    }
+
+    /**
+     * Passes the files of one directory, and of its subdirectories when recursive.
+     * @param ancestors real paths of the directories being listed, to stop at link loops
+     */
+    protected void forEach(Path root, Path dir, SourceConsumer consumer, Set<Path> ancestors) throws IOException {
+        Path real = dir.toRealPath();
+        if (!ancestors.add(real)) {
+            LOGGER.info("Directory \"" + dir + "\" links back to \"" + real + "\", skipped");
+            return;
+        }
+        List<Path> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path entry : stream) {
+                entries.add(entry);
+            }
+        }
+        entries.sort((a, b) -> naturalCompare(a.getFileName().toString(), b.getFileName().toString()));
+        for (Path entry : entries) {
+            if (Files.isDirectory(entry)) {
+                if (recursive) {
+                    forEach(root, entry, consumer, ancestors);
+                }
+            } else if (accept(entry)) {
+                consumer.accept(root, entry);
+            }
+        }
+        ancestors.remove(real);
+    }
+
+    /** Applies the glob and content filters to a file found in a directory. */
+    protected boolean accept(Path file) {
+        if (!Files.isRegularFile(file) || !Files.isReadable(file)) {
+            return false;
+        }
+        if (null != glob && !glob.matches(file.getFileName())) {
+            return false;
+        }
+        try {
+            switch (content) {
+            case IMAGE:
+                return IMAGEIO_TYPES.contains(imageType(file));
+            case ITEXT_IMAGE:
+                return ITEXT_IMAGE_TYPES.contains(imageType(file));
+            case PDF:
+                return isPdf(file);
+            default:
+                return true;
+            }
+        } catch (IOException e) {
+            LOGGER.info("File \"" + file + "\" cannot be sniffed e=" + e);
+            return false;
+        }
+    }
+
+    /** Reads up to length bytes from the start of the file. */
+    public static byte[] head(Path file, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        int count = 0;
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while (count < length && (read = in.read(bytes, count, length - count)) > 0) {
+                count += read;
+            }
+        }
+        if (count < length) {
+            byte[] shorter = new byte[count];
+            System.arraycopy(bytes, 0, shorter, 0, count);
+            return shorter;
+        }
+        return bytes;
+    }
+
+    /** Identifies the image type from the magic bytes at the start of the file. */
+    public static ImageType imageType(Path file) throws IOException {
+        return imageType(head(file, SNIFF_LENGTH));
+    }
+
+    /** Identifies the image type from the magic bytes at the start of the data. */
+    public static ImageType imageType(byte[] head) {
+        if (startsWith(head, 0xFF, 0xD8, 0xFF)) {
+            return ImageType.JPEG;
+        } else if (startsWith(head, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A)) {
+            return ImageType.PNG;
+        } else if (startsWith(head, 'G', 'I', 'F', '8')) {
+            return ImageType.GIF;
+        } else if (startsWith(head, 'B', 'M')) {
+            return ImageType.BMP;
+        } else if (startsWith(head, 'I', 'I', 42, 0) || startsWith(head, 'M', 'M', 0, 42)) {
+            return ImageType.TIFF;
+        } else if (startsWith(head, 0, 0, 0, 0x0C, 'j', 'P', ' ', ' ') || startsWith(head, 0xFF, 0x4F, 0xFF, 0x51)) {
+            return ImageType.JPEG2000;
+        } else if (startsWith(head, 0x97, 'J', 'B', '2', 0x0D, 0x0A, 0x1A, 0x0A)) {
+            return ImageType.JBIG2;
+        } else if (startsWith(head, 0xD7, 0xCD, 0xC6, 0x9A)) {
+            return ImageType.WMF;
+        }
+        return ImageType.NONE;
+    }
+
+    private static Set<ImageType> imageIOTypes() {
+        Set<ImageType> types = EnumSet.noneOf(ImageType.class);
+        String[][] formats = { { "JPEG", "jpeg" }, { "PNG", "png" }, { "GIF", "gif" }, { "BMP", "bmp" }, { "TIFF", "tiff" },
+            { "JPEG2000", "jpeg2000" }, { "JBIG2", "jbig2" }, { "WMF", "wmf" } };
+        for (String[] format : formats) {
+            if (ImageIO.getImageReadersByFormatName(format[1]).hasNext()) {
+                types.add(ImageType.valueOf(format[0]));
+            }
+        }
+        return Collections.unmodifiableSet(types);
+    }
+
+    /** States if the file has a PDF header near its start. */
+    public static boolean isPdf(Path file) throws IOException {
+        byte[] head = head(file, PDF_SNIFF_LENGTH);
+        for (int i = 0; i + 5 <= head.length; i++) {
+            if (head[i] == '%' && head[i + 1] == 'P' && head[i + 2] == 'D' && head[i + 3] == 'F' && head[i + 4] == '-') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean startsWith(byte[] head, int... magic) {
+        if (head.length < magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if ((head[i] & 0xFF) != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Places an output in dest, in the same subdirectory the source has below its root,
+     * named as the source with a suffix and a new extension, for example "-w.pdf".
+     */
+    public static File outputFile(Path root, Path srcFile, String dest, String suffix) {
+        Path destDir = Paths.get(dest);
+        Path parent = srcFile.getParent();
+        if (!root.equals(srcFile) && null != parent && !root.equals(parent)) {
+            destDir = destDir.resolve(root.relativize(parent));
+            destDir.toFile().mkdirs();
+        }
+        String srcName = srcFile.getFileName().toString();
+        int dot = srcName.lastIndexOf('.');
+        String baseName = dot > 0 ? srcName.substring(0, dot) : srcName;
+        return destDir.resolve(baseName + suffix).toFile();
+    }
+
+    /** Compares strings with runs of digits compared by value, otherwise case insensitive. */
+    public static int naturalCompare(String a, String b) {
+        int i = 0, j = 0;
+        while (i < a.length() && j < b.length()) {
+            char ca = a.charAt(i);
+            char cb = b.charAt(j);
+            if (Character.isDigit(ca) && Character.isDigit(cb)) {
+                int startA = i, startB = j;
+                while (i < a.length() && Character.isDigit(a.charAt(i))) i++;
+                while (j < b.length() && Character.isDigit(b.charAt(j))) j++;
+                // Compare without leading zeros, longer runs are larger numbers.
+                int zerosA = startA, zerosB = startB;
+                while (zerosA < i - 1 && a.charAt(zerosA) == '0') zerosA++;
+                while (zerosB < j - 1 && b.charAt(zerosB) == '0') zerosB++;
+                int lengthA = i - zerosA, lengthB = j - zerosB;
+                if (lengthA != lengthB) {
+                    return lengthA - lengthB;
+                }
+                int compare = a.substring(zerosA, i).compareTo(b.substring(zerosB, j));
+                if (compare != 0) {
+                    return compare;
+                }
+            } else {
+                int compare = Character.compare(Character.toLowerCase(ca), Character.toLowerCase(cb));
+                if (compare != 0) {
+                    return compare;
+                }
+                i++;
+                j++;
+            }
+        }
+        int compare = (a.length() - i) - (b.length() - j);
+        return compare != 0 ? compare : a.compareTo(b);
+    }
+}
@@ -0,0 +1,27 @@
+package info.danbecker.pdfcl;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Flight Recorder event for one timed stage of a verb, such as parsing, copying, or writing.
+ * Committed by {@link Metrics.Timer} when a recording has the event enabled.
+ * 
+ * @author <a href="mailto://dan@danbecker.info">Dan Becker</a>
+ */
+@Name("info.danbecker.pdfcl.Stage")
+@Label("pdfCL Stage")
+@Category("pdfCL")
+@Description("One timed stage of a pdfCL verb")
+public class StageEvent extends Event {
+    @Label("Stage")
+    public String stage;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+}
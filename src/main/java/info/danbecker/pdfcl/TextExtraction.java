@@ -0,0 +1,285 @@
+package info.danbecker.pdfcl;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.kernel.pdf.canvas.parser.PdfTextExtractor;
+import com.itextpdf.kernel.pdf.canvas.parser.listener.SimpleTextExtractionStrategy;
+
+/**
+ * Extracts the text of PDF files into a TextIndex, page parallel.
+ *
+ * Each worker opens its own PdfDocument, as documents are not thread safe, and extracts every
+ * worker count'th chunk of pages. The terms of each file are written to a segment, an index of that
+ * file alone, which a JobManifest in dest ties to the file. A rerun only extracts changed or new files,
+ * drops the segments of removed files, and updates dest/index.pcx for search by merging the files it keeps
+ * with the new segments. Without an index, all segments are merged.
+ *
+ * @author <a href="mailto://dan@danbecker.info">Dan Becker</a>
+ */
+public class TextExtraction {
+    /** LOGGER */
+    public static final Logger LOGGER = LoggerFactory.getLogger(TextExtraction.class);
+
+    public static final String SEGMENTS = "segments";
+    public static final String SEGMENT_EXTENSION = ".seg";
+    /** Pages a worker extracts before moving to its next chunk. */
+    public static final int CHUNK_PAGES = 16;
+    /** Stored in the manifest, so a change of index format reindexes every file. */
+    public static final String OPTIONS = "extractText version=" + TextIndex.VERSION;
+
+    /** A growable list of pages. */
+    protected static class IntList {
+        int[] values = new int[4];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        void addAll(IntList other) {
+            for (int i = 0; i < other.size; i++) {
+                add(other.values[i]);
+            }
+        }
+    }
+
+    /** A file whose pages are being extracted. */
+    protected static class FileJob {
+        final Path source;
+        final List<Future<Map<String,IntList>>> futures = new ArrayList<>();
+
+        FileJob(Path source) {
+            this.source = source;
+        }
+    }
+
+    private final Path segments;
+    private final JobManifest manifest;
+    private final ExecutorService executor;
+    private final int threads;
+    private final Deque<FileJob> pending = new ArrayDeque<>();
+    private int pendingTasks;
+    /** segments written in this run, by source key */
+    private final Map<String,Path> extracted = new LinkedHashMap<>();
+    private int removed;
+
+    public TextExtraction(Path segments, JobManifest manifest, ExecutorService executor, int threads) {
+        this.segments = segments;
+        this.manifest = manifest;
+        this.executor = executor;
+        this.threads = threads;
+    }
+
+    /**
+     * Indexes the text of the PDF files found by the finder into dest.
+     * @param srcs files or directories of PDF files
+     * @param dest index directory
+     * @throws IOException
+     */
+    public static void extractText(String[] srcs, String dest, SourceFinder finder) throws IOException {
+        Path destDir = Paths.get(dest);
+        Path segments = destDir.resolve(SEGMENTS);
+        Files.createDirectories(segments);
+        JobManifest manifest = JobManifest.load(dest, OPTIONS);
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        TextExtraction extraction = new TextExtraction(segments, manifest, executor, threads);
+        try {
+            finder.forEach(srcs, (root, srcFile) -> {
+                if (manifest.upToDate(srcFile)) {
+                    LOGGER.info("Source file=" + srcFile + " is up to date");
+                    return;
+                }
+                extraction.submit(srcFile);
+            });
+            extraction.finishAll();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Path index = destDir.resolve(TextIndex.FILE_NAME);
+        // Sources outside this run's roots keep their segments, so only extracted or dropped files change the index.
+        int removed = extraction.removed + manifest.removeStale(srcs);
+        // Indexed files which are still recorded and not extracted again are kept, and the new segments merged.
+        Set<String> keep = manifest.sources();
+        keep.removeAll(extraction.extracted.keySet());
+        if (!extraction.extracted.isEmpty() || removed > 0 || !Files.exists(index)) {
+            if (keep.isEmpty() || !Files.exists(index)) {
+                TextIndex.merge(manifest.outputs(), index);
+            } else {
+                TextIndex.merge(index, keep::contains, new ArrayList<>(extraction.extracted.values()), index);
+            }
+        } else {
+            LOGGER.info("Index \"" + index + "\" is up to date");
+        }
+        // Only saved once the index holds the recorded segments, so a failed merge is redone by the next run.
+        manifest.save();
+    }
+
+    /** Splits the pages of a file among the workers, finishing earlier files when enough work is queued. */
+    protected void submit(Path source) throws IOException {
+        int pages;
+        try (Metrics.Timer timer = Metrics.time("extractText.parse")) {
+            timer.bytes(PdfCL.read(source.toString()));
+            PdfDocument pdfDoc = new PdfDocument(new PdfReader(source.toFile()));
+            pages = pdfDoc.getNumberOfPages();
+            pdfDoc.close();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Source file=" + source + " cannot be read e=" + e);
+            if (manifest.remove(source)) {
+                removed++;
+            }
+            return;
+        }
+        FileJob job = new FileJob(source);
+        int chunks = (pages + CHUNK_PAGES - 1) / CHUNK_PAGES;
+        int workers = Math.max(1, Math.min(threads, chunks));
+        for (int worker = 0; worker < workers; worker++) {
+            final int first = worker;
+            job.futures.add(executor.submit(() -> extract(source, pages, first, workers)));
+        }
+        pending.add(job);
+        pendingTasks += workers;
+        while (pendingTasks > 2 * threads) {
+            finish(pending.poll());
+        }
+    }
+
+    protected void finishAll() throws IOException {
+        while (!pending.isEmpty()) {
+            finish(pending.poll());
+        }
+    }
+
+    /** Extracts the pages of every workers'th chunk, starting with chunk first. Returns the pages of each term. */
+    protected static Map<String,IntList> extract(Path source, int pages, int first, int workers) throws IOException {
+        Map<String,IntList> terms = new HashMap<>();
+        Metrics.run("extractText.extract", () -> {
+            PdfDocument pdfDoc = new PdfDocument(new PdfReader(source.toFile()));
+            try {
+                for (int chunk = first; chunk * CHUNK_PAGES < pages; chunk += workers) {
+                    int last = Math.min(pages, (chunk + 1) * CHUNK_PAGES);
+                    for (int page = chunk * CHUNK_PAGES + 1; page <= last; page++) {
+                        String text;
+                        try {
+                            text = PdfTextExtractor.getTextFromPage(pdfDoc.getPage(page), new SimpleTextExtractionStrategy());
+                        } catch (RuntimeException e) {
+                            LOGGER.info("Source file=" + source + " page " + page + " text cannot be extracted e=" + e);
+                            continue;
+                        }
+                        for (String term : TextIndex.terms(text)) {
+                            terms.computeIfAbsent(term, t -> new IntList()).add(page);
+                        }
+                    }
+                }
+            } finally {
+                pdfDoc.close();
+            }
+        });
+        return terms;
+    }
+
+    /** Gathers the terms of a file from its workers and writes its segment. */
+    protected void finish(FileJob job) throws IOException {
+        pendingTasks -= job.futures.size();
+        Map<String,IntList> terms = new HashMap<>();
+        try {
+            for (Future<Map<String,IntList>> future : job.futures) {
+                for (Map.Entry<String,IntList> entry : future.get().entrySet()) {
+                    IntList pages = terms.get(entry.getKey());
+                    if (null == pages) {
+                        terms.put(entry.getKey(), entry.getValue());
+                    } else {
+                        pages.addAll(entry.getValue());
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted extracting \"" + job.source + "\"", e);
+        } catch (ExecutionException e) {
+            LOGGER.error("Source file=" + job.source + " text cannot be extracted e=" + e.getCause());
+            // Drop the segment of an earlier version, rather than merging text the file no longer has.
+            if (manifest.remove(job.source)) {
+                removed++;
+            }
+            return;
+        }
+
+        Path segment = segments.resolve(segmentName(job.source));
+        int postings = Metrics.time("extractText.segment", () -> writeSegment(segment, job.source, terms));
+        manifest.record(job.source, Collections.singletonList(segment));
+        extracted.put(JobManifest.key(job.source), segment);
+        LOGGER.info("Source file=" + job.source + " terms=" + terms.size() + ", postings=" + postings);
+    }
+
+    /** Writes the terms of one file as a segment. Returns the number of postings. */
+    protected static int writeSegment(Path segment, Path source, Map<String,IntList> terms) throws IOException {
+        List<byte[]> sorted = new ArrayList<>(terms.size());
+        for (String term : terms.keySet()) {
+            sorted.add(term.getBytes(StandardCharsets.UTF_8));
+        }
+        Collections.sort(sorted, TextIndex.TERM_ORDER);
+        int postings = 0;
+        try (TextIndex.Writer writer = new TextIndex.Writer(segment)) {
+            writer.addFile(JobManifest.key(source));
+            for (byte[] term : sorted) {
+                IntList pages = terms.get(new String(term, StandardCharsets.UTF_8));
+                // Workers take chunks in turn, so the pages of a term arrive out of order.
+                Arrays.sort(pages.values, 0, pages.size);
+                writer.addTerm(term);
+                for (int i = 0; i < pages.size; i++) {
+                    writer.addPosting(0, pages.values[i]);
+                }
+                postings += pages.size;
+            }
+            writer.finish();
+        }
+        return postings;
+    }
+
+    /** Names a segment after the hash of the source path. */
+    protected static String segmentName(Path source) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 is not available", e);
+        }
+        byte[] hash = digest.digest(JobManifest.key(source).getBytes(StandardCharsets.UTF_8));
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 8; i++) {
+            sb.append(String.format("%02x", hash[i]));
+        }
+        return sb.toString() + SEGMENT_EXTENSION;
+    }
+}
@@ -0,0 +1,769 @@
+package info.danbecker.pdfcl;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An inverted index from terms to the file pages containing them, stored in one file read through memory maps.
+ *
+ * The file holds a header, a table of file names, a term dictionary of fixed size entries sorted by the
+ * UTF-8 bytes of the term, the term and file name strings, and the postings. Postings of a term are sorted
+ * by file and page and stored as variable length deltas. A query binary searches the dictionary and decodes
+ * only the postings of its terms, so it needs neither the PDFs nor reading the whole index.
+ * Indexes of single files (segments) are merged into one index by streaming them in term order, at most
+ * MERGE_FAN_IN at a time, and an index is updated by merging the files it keeps with new segments.
+ *
+ * @author <a href="mailto://dan@danbecker.info">Dan Becker</a>
+ */
+public class TextIndex implements AutoCloseable {
+    /** LOGGER */
+    public static final Logger LOGGER = LoggerFactory.getLogger(TextIndex.class);
+
+    public static final String FILE_NAME = "index.pcx";
+    public static final int MAGIC = 0x50434C58; // "PCLX"
+    public static final int VERSION = 1;
+    /** magic, version, fileCount, termCount, and the files, dictionary, strings, and postings offsets */
+    public static final int HEADER_SIZE = 4 * 4 + 4 * 8;
+    /** string offset, postings offset, postings length, postings count */
+    public static final int ENTRY_SIZE = 8 + 8 + 4 + 4;
+    public static final int MIN_TERM_LENGTH = 2;
+    public static final int MAX_TERM_LENGTH = 64;
+    public static final int DEFAULT_MAX_HITS = 100;
+    public static final int BUFFER_SIZE = 1 << 16;
+    /** Most indexes merged at once. More are first merged in tiers of intermediate indexes. */
+    public static final int MERGE_FAN_IN = 128;
+    public static final int MERGE_BUFFER_SIZE = 1 << 13;
+
+    /** Orders terms by their UTF-8 bytes, the dictionary order. */
+    public static final Comparator<byte[]> TERM_ORDER = TextIndex::compare;
+
+    private final Path path;
+    private final int fileCount;
+    private final int termCount;
+    private final ByteBuffer files;
+    private final ByteBuffer dictionary;
+    private final ByteBuffer strings;
+    private final ByteBuffer postings;
+
+    /**
+     * Maps an index file for reading. Each section is mapped separately, so sections are limited to 2 GB.
+     * @throws IOException
+     */
+    public TextIndex(Path path) throws IOException {
+        this.path = path;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = readHeader(channel, path);
+            fileCount = header.getInt();
+            termCount = header.getInt();
+            long filesOffset = header.getLong();
+            long dictionaryOffset = header.getLong();
+            long stringsOffset = header.getLong();
+            long postingsOffset = header.getLong();
+            files = map(channel, filesOffset, dictionaryOffset);
+            dictionary = map(channel, dictionaryOffset, stringsOffset);
+            strings = map(channel, stringsOffset, postingsOffset);
+            postings = map(channel, postingsOffset, channel.size());
+        }
+    }
+
+    /** Reads the header of an index, positioned after the magic and version. */
+    protected static ByteBuffer readHeader(FileChannel channel, Path path) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                break;
+            }
+        }
+        header.flip();
+        if (HEADER_SIZE != header.remaining() || MAGIC != header.getInt() || VERSION != header.getInt()) {
+            throw new IOException("index \"" + path + "\" has no version " + VERSION + " header");
+        }
+        return header;
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long start, long end) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+    }
+
+    public int getFileCount() {
+        return fileCount;
+    }
+
+    public int getTermCount() {
+        return termCount;
+    }
+
+    /** Returns the name of the given file. */
+    public String file(int file) {
+        return string(files.getLong(8 * file));
+    }
+
+    /** Returns the UTF-8 bytes of the given term. */
+    public byte[] term(int term) {
+        return bytes(dictionary.getLong(ENTRY_SIZE * term));
+    }
+
+    /** Returns the number of pages containing the term. */
+    public int count(int term) {
+        return dictionary.getInt(ENTRY_SIZE * term + 20);
+    }
+
+    /** Returns the index of the term, or -1 when no page contains it. */
+    public int find(byte[] term) {
+        int low = 0, high = termCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int compare = compare(term(mid), term);
+            if (compare < 0) {
+                low = mid + 1;
+            } else if (compare > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the postings of the term, each as the file in the high and the page in the low 32 bits, in order. */
+    public long[] postings(int term) {
+        int entry = ENTRY_SIZE * term;
+        ByteBuffer buffer = postings.duplicate();
+        buffer.position((int) dictionary.getLong(entry + 8));
+        long[] result = new long[dictionary.getInt(entry + 20)];
+        int file = 0, page = 0;
+        for (int i = 0; i < result.length; i++) {
+            int fileDelta = readVarint(buffer);
+            if (fileDelta != 0) {
+                file += fileDelta;
+                page = 0;
+            }
+            page += readVarint(buffer);
+            result[i] = posting(file, page);
+        }
+        return result;
+    }
+
+    public static long posting(int file, int page) {
+        return ((long) file << 32) | (page & 0xFFFFFFFFL);
+    }
+
+    public static int postingFile(long posting) {
+        return (int) (posting >>> 32);
+    }
+
+    public static int postingPage(long posting) {
+        return (int) posting;
+    }
+
+    /** Returns the pages containing all the terms of the query. */
+    public long[] query(String query) {
+        long[] result = null;
+        for (String term : terms(query)) {
+            int index = find(term.getBytes(StandardCharsets.UTF_8));
+            if (index < 0) {
+                return new long[0];
+            }
+            result = null == result ? postings(index) : intersect(result, postings(index));
+        }
+        return null == result ? new long[0] : result;
+    }
+
+    /** Intersects two sorted arrays. */
+    protected static long[] intersect(long[] a, long[] b) {
+        long[] result = new long[Math.min(a.length, b.length)];
+        int i = 0, j = 0, count = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private String string(long offset) {
+        return new String(bytes(offset), StandardCharsets.UTF_8);
+    }
+
+    private byte[] bytes(long offset) {
+        ByteBuffer buffer = strings.duplicate();
+        buffer.position((int) offset);
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    @Override
+    public void close() {
+        // Mapped buffers are released when collected. Merges read through channels, so only queries map an index.
+    }
+
+    @Override
+    public String toString() {
+        return "\"" + path + "\" files=" + fileCount + ", terms=" + termCount;
+    }
+
+    /**
+     * Splits text into lower case terms of letters and digits, between MIN_TERM_LENGTH and MAX_TERM_LENGTH long.
+     * Returns each term once.
+     */
+    public static Set<String> terms(String text) {
+        Set<String> terms = new TreeSet<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean termChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (termChar && start < 0) {
+                start = i;
+            } else if (!termChar && start >= 0) {
+                int length = i - start;
+                if (length >= MIN_TERM_LENGTH && length <= MAX_TERM_LENGTH) {
+                    terms.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                }
+                start = -1;
+            }
+        }
+        return terms;
+    }
+
+    /** Compares byte arrays as unsigned bytes. */
+    public static int compare(byte[] a, byte[] b) {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            int compare = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (compare != 0) {
+                return compare;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    protected static int readVarint(ByteBuffer buffer) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    /** Writes the value in 7 bit groups, and returns the number of bytes written. */
+    protected static int writeVarint(DataOutputStream out, int value) throws IOException {
+        int bytes = 1;
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+            bytes++;
+        }
+        out.writeByte(value);
+        return bytes;
+    }
+
+    /**
+     * Writes an index. Files are added first, then terms in TERM_ORDER, each followed by its postings in order.
+     * Sections are written to temporary files, then joined and moved into place by finish.
+     * Closing without finish, such as after a failure, deletes the temporary files and leaves any earlier index in place.
+     * Section sizes are counted as longs, and finish fails on a section beyond the 2 GB a reader can map.
+     */
+    public static class Writer implements AutoCloseable {
+        private static final String[] SECTIONS = { "files", "dictionary", "strings", "postings" };
+
+        private final Path path;
+        private final Path[] temps = new Path[4];
+        private final DataOutputStream files;
+        private final DataOutputStream dictionary;
+        private final DataOutputStream strings;
+        private final DataOutputStream postings;
+        private int fileCount;
+        private int termCount;
+        private byte[] term;
+        private long termStart;
+        private long stringsSize;
+        private long postingsSize;
+        private boolean finished;
+        private int count;
+        private int file;
+        private int page;
+
+        public Writer(Path path) throws IOException {
+            this.path = path;
+            DataOutputStream[] outs = new DataOutputStream[SECTIONS.length];
+            for (int i = 0; i < SECTIONS.length; i++) {
+                temps[i] = path.resolveSibling(path.getFileName() + "." + SECTIONS[i] + ".tmp");
+                outs[i] = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temps[i]), BUFFER_SIZE));
+            }
+            files = outs[0];
+            dictionary = outs[1];
+            strings = outs[2];
+            postings = outs[3];
+        }
+
+        /** Adds the next file, and returns its number. */
+        public int addFile(String name) throws IOException {
+            files.writeLong(writeString(name.getBytes(StandardCharsets.UTF_8)));
+            return fileCount++;
+        }
+
+        /** Starts the postings of the next term, which must follow the previous term in TERM_ORDER. */
+        public void addTerm(byte[] term) throws IOException {
+            endTerm();
+            if (null != this.term && compare(this.term, term) >= 0) {
+                throw new IllegalArgumentException("term \"" + new String(term, StandardCharsets.UTF_8) + "\" is out of order");
+            }
+            this.term = term;
+            termStart = postingsSize;
+            count = 0;
+            file = 0;
+            page = 0;
+        }
+
+        /** Adds a posting to the current term. Postings must be in file and page order. */
+        public void addPosting(int file, int page) throws IOException {
+            int fileDelta = file - this.file;
+            postingsSize += writeVarint(postings, fileDelta);
+            if (fileDelta != 0) {
+                this.file = file;
+                this.page = 0;
+            }
+            postingsSize += writeVarint(postings, page - this.page);
+            this.page = page;
+            count++;
+        }
+
+        protected void endTerm() throws IOException {
+            if (null != term && count > 0) {
+                dictionary.writeLong(writeString(term));
+                dictionary.writeLong(termStart);
+                dictionary.writeInt(sectionSize("postings of term \"" + new String(term, StandardCharsets.UTF_8) + "\"",
+                    postingsSize - termStart));
+                dictionary.writeInt(count);
+                termCount++;
+                count = 0;
+            }
+        }
+
+        private long writeString(byte[] bytes) throws IOException {
+            long offset = stringsSize;
+            strings.writeInt(bytes.length);
+            strings.write(bytes);
+            stringsSize += 4 + bytes.length;
+            return offset;
+        }
+
+        /** Returns the size as an int, or fails when it is beyond what a reader can map. */
+        protected static int sectionSize(String section, long size) throws IOException {
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(section + " size " + size + " exceeds " + Integer.MAX_VALUE + " bytes");
+            }
+            return (int) size;
+        }
+
+        /**
+         * Joins the sections behind the header and moves the index into place.
+         * @throws IOException
+         */
+        public void finish() throws IOException {
+            endTerm();
+            long[] sizes = new long[temps.length];
+            DataOutputStream[] outs = { files, dictionary, strings, postings };
+            for (int i = 0; i < outs.length; i++) {
+                outs[i].close();
+                sizes[i] = Files.size(temps[i]);
+                sectionSize(SECTIONS[i] + " section of \"" + path + "\"", sizes[i]);
+            }
+            Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putInt(VERSION).putInt(fileCount).putInt(termCount);
+                long offset = HEADER_SIZE;
+                for (long size : sizes) {
+                    header.putLong(offset);
+                    offset += size;
+                }
+                header.flip();
+                while (header.hasRemaining()) {
+                    out.write(header);
+                }
+                for (Path section : temps) {
+                    try (FileChannel in = FileChannel.open(section, StandardOpenOption.READ)) {
+                        long position = 0, size = in.size();
+                        while (position < size) {
+                            position += in.transferTo(position, size - position, out);
+                        }
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(temp);
+                throw e;
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            finished = true;
+        }
+
+        /** Deletes the temporary files, and leaves path untouched unless finished. */
+        @Override
+        public void close() throws IOException {
+            if (!finished) {
+                for (DataOutputStream out : new DataOutputStream[] { files, dictionary, strings, postings }) {
+                    try {
+                        out.close();
+                    } catch (IOException e) {
+                        LOGGER.info("Index section cannot be closed e=" + e);
+                    }
+                }
+                LOGGER.info("Index \"" + path + "\" not written");
+            }
+            for (Path section : temps) {
+                Files.deleteIfExists(section);
+            }
+        }
+    }
+
+    /** Buffered reads from any position of a channel, served from the buffer while reads stay near and in order. */
+    protected static class SectionReader {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(MERGE_BUFFER_SIZE);
+        /** channel position of the start of the buffer */
+        private long start;
+
+        SectionReader(FileChannel channel) {
+            this.channel = channel;
+            buffer.limit(0);
+        }
+
+        void seek(long position) {
+            if (position >= start && position <= start + buffer.limit()) {
+                buffer.position((int) (position - start));
+            } else {
+                start = position;
+                buffer.clear();
+                buffer.limit(0);
+            }
+        }
+
+        /** Makes count bytes, at most the buffer size, available. */
+        private void fill(int count) throws IOException {
+            if (buffer.remaining() >= count) {
+                return;
+            }
+            start += buffer.position();
+            buffer.compact();
+            while (buffer.position() < count) {
+                if (channel.read(buffer, start + buffer.position()) < 0) {
+                    throw new EOFException("index ends at " + (start + buffer.position()));
+                }
+            }
+            buffer.flip();
+        }
+
+        int getInt() throws IOException {
+            fill(4);
+            return buffer.getInt();
+        }
+
+        long getLong() throws IOException {
+            fill(8);
+            return buffer.getLong();
+        }
+
+        void get(byte[] bytes) throws IOException {
+            int offset = 0;
+            while (offset < bytes.length) {
+                fill(1);
+                int count = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.get(bytes, offset, count);
+                offset += count;
+            }
+        }
+
+        int getVarint() throws IOException {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                fill(1);
+                b = buffer.get();
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+    }
+
+    /**
+     * An index being merged, positioned at its current term. It is read in order through one channel
+     * and a few small buffers rather than maps, so a merge holds no more than a file handle per input.
+     */
+    protected static class Cursor implements AutoCloseable {
+        final Path path;
+        final int order;
+        final FileChannel channel;
+        final int fileCount;
+        final int termCount;
+        final long filesOffset;
+        final long dictionaryOffset;
+        final long stringsOffset;
+        final long postingsOffset;
+        final SectionReader entries;
+        final SectionReader strings;
+        final SectionReader postings;
+        int[] fileMap;
+        int term = -1;
+        byte[] bytes;
+        long postingsStart;
+        int postingsCount;
+
+        Cursor(Path path, int order) throws IOException {
+            this.path = path;
+            this.order = order;
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                ByteBuffer header = readHeader(channel, path);
+                fileCount = header.getInt();
+                termCount = header.getInt();
+                filesOffset = header.getLong();
+                dictionaryOffset = header.getLong();
+                stringsOffset = header.getLong();
+                postingsOffset = header.getLong();
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+            entries = new SectionReader(channel);
+            strings = new SectionReader(channel);
+            postings = new SectionReader(channel);
+        }
+
+        /**
+         * Adds the files of this index which keep accepts to the writer, all when keep is null.
+         * Returns the number added.
+         */
+        int addFiles(Writer writer, Predicate<String> keep) throws IOException {
+            fileMap = new int[fileCount];
+            int added = 0;
+            for (int i = 0; i < fileCount; i++) {
+                entries.seek(filesOffset + 8L * i);
+                String name = new String(string(entries.getLong()), StandardCharsets.UTF_8);
+                if (null == keep || keep.test(name)) {
+                    fileMap[i] = writer.addFile(name);
+                    added++;
+                } else {
+                    fileMap[i] = -1;
+                }
+            }
+            return added;
+        }
+
+        boolean next() throws IOException {
+            if (++term >= termCount) {
+                return false;
+            }
+            entries.seek(dictionaryOffset + (long) ENTRY_SIZE * term);
+            long stringOffset = entries.getLong();
+            postingsStart = entries.getLong();
+            entries.getInt();
+            postingsCount = entries.getInt();
+            bytes = string(stringOffset);
+            return true;
+        }
+
+        /** Adds the postings of the current term to the writer, except those of dropped files. */
+        void copyPostings(Writer writer) throws IOException {
+            postings.seek(postingsOffset + postingsStart);
+            int file = 0, page = 0;
+            for (int i = 0; i < postingsCount; i++) {
+                int fileDelta = postings.getVarint();
+                if (fileDelta != 0) {
+                    file += fileDelta;
+                    page = 0;
+                }
+                page += postings.getVarint();
+                if (fileMap[file] >= 0) {
+                    writer.addPosting(fileMap[file], page);
+                }
+            }
+        }
+
+        private byte[] string(long offset) throws IOException {
+            strings.seek(stringsOffset + offset);
+            byte[] bytes = new byte[strings.getInt()];
+            strings.get(bytes);
+            return bytes;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Merges segments into one index. The files of each segment follow those of the segments before it.
+     * @throws IOException
+     */
+    public static void merge(List<Path> segments, Path dest) throws IOException {
+        merge(null, null, segments, dest, MERGE_FAN_IN);
+    }
+
+    /**
+     * Updates an index with new segments. The files of base which keep accepts come first, followed by the files
+     * of the segments. Base may be dest, which is replaced once the merge is complete.
+     * @throws IOException
+     */
+    public static void merge(Path base, Predicate<String> keep, List<Path> segments, Path dest) throws IOException {
+        merge(base, keep, segments, dest, MERGE_FAN_IN);
+    }
+
+    /**
+     * Merges at most fanIn segments at once. More segments are merged in tiers, each folding groups of fanIn
+     * inputs into intermediate indexes next to dest, until fanIn or fewer remain for the last merge.
+     * Intermediate indexes are deleted once merged, or on failure.
+     * @throws IOException
+     */
+    protected static void merge(Path base, Predicate<String> keep, List<Path> segments, Path dest, int fanIn) throws IOException {
+        try (Metrics.Timer timer = Metrics.time("extractText.merge")) {
+            List<Path> temps = new ArrayList<>();
+            try {
+                List<Path> inputs = segments;
+                for (int tier = 0; inputs.size() > fanIn; tier++) {
+                    List<Path> merged = new ArrayList<>();
+                    for (int i = 0; i < inputs.size(); i += fanIn) {
+                        Path temp = dest.resolveSibling(dest.getFileName() + ".tier" + tier + "." + merged.size() + ".tmp");
+                        temps.add(temp);
+                        merged.add(temp);
+                        mergeOnce(null, null, inputs.subList(i, Math.min(inputs.size(), i + fanIn)), temp, timer);
+                    }
+                    for (Path input : inputs) {
+                        if (temps.remove(input)) {
+                            Files.delete(input);
+                        }
+                    }
+                    inputs = merged;
+                }
+                mergeOnce(base, keep, inputs, dest, timer);
+            } finally {
+                for (Path temp : temps) {
+                    Files.deleteIfExists(temp);
+                }
+            }
+        }
+        try (TextIndex index = new TextIndex(dest)) {
+            LOGGER.info("Index " + index + ", bytes=" + Files.size(dest));
+        }
+    }
+
+    /**
+     * Merges the inputs, all open at once, into dest. The inputs are closed before dest is replaced.
+     * @throws IOException
+     */
+    protected static void mergeOnce(Path base, Predicate<String> keep, List<Path> inputs, Path dest, Metrics.Timer timer) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        if (null != base) {
+            paths.add(base);
+        }
+        paths.addAll(inputs);
+        try (Writer writer = new Writer(dest)) {
+            List<Cursor> cursors = new ArrayList<>(paths.size());
+            try {
+                // Ties go to the earlier input, keeping postings in file order.
+                PriorityQueue<Cursor> queue = new PriorityQueue<>((a, b) -> {
+                    int compare = compare(a.bytes, b.bytes);
+                    return compare != 0 ? compare : a.order - b.order;
+                });
+                for (Path path : paths) {
+                    timer.bytes(Files.size(path));
+                    Cursor cursor = new Cursor(path, cursors.size());
+                    cursors.add(cursor);
+                    if (cursor.addFiles(writer, null != base && 0 == cursor.order ? keep : null) > 0 && cursor.next()) {
+                        queue.add(cursor);
+                    }
+                }
+                while (!queue.isEmpty()) {
+                    byte[] term = queue.peek().bytes;
+                    writer.addTerm(term);
+                    while (!queue.isEmpty() && 0 == compare(queue.peek().bytes, term)) {
+                        Cursor cursor = queue.poll();
+                        cursor.copyPostings(writer);
+                        if (cursor.next()) {
+                            queue.add(cursor);
+                        }
+                    }
+                }
+            } finally {
+                for (Cursor cursor : cursors) {
+                    try {
+                        cursor.close();
+                    } catch (IOException e) {
+                        LOGGER.info("Index \"" + cursor.path + "\" cannot be closed e=" + e);
+                    }
+                }
+            }
+            writer.finish();
+        }
+    }
+
+    /**
+     * Finds the pages containing all terms of the query in the index in dest, and logs them.
+     * @param dest index directory written by extractText, or index file
+     * @param query terms separated by spaces or punctuation
+     * @param number maximum pages to list, default 100
+     * @return the pages found
+     * @throws IOException
+     */
+    public static List<String> search(String dest, String query, String number) throws IOException {
+        if (null == query || terms(query).isEmpty()) {
+            throw new IllegalArgumentException("query with at least one term of " + MIN_TERM_LENGTH + " or more letters is required");
+        }
+        int maxHits = null == number ? DEFAULT_MAX_HITS : Integer.parseInt(number);
+        Path path = Paths.get(dest);
+        if (Files.isDirectory(path)) {
+            path = path.resolve(FILE_NAME);
+        }
+        List<String> hits = new ArrayList<>();
+        long start = System.nanoTime();
+        long[] postings;
+        try (TextIndex index = new TextIndex(path)) {
+            postings = Metrics.time("search.query", () -> index.query(query));
+            for (int i = 0; i < postings.length && i < maxHits; i++) {
+                hits.add(index.file(postingFile(postings[i])) + "\t" + postingPage(postings[i]));
+            }
+        }
+        LOGGER.info("Query \"" + query + "\" terms=" + terms(query) + ", pages=" + postings.length
+            + ", millis=" + String.format("%.3f", (System.nanoTime() - start) / 1e6));
+        for (String hit : hits) {
+            LOGGER.info(hit);
+        }
+        return hits;
+    }
+}
@@ -0,0 +1,193 @@
+package info.danbecker.pdfcl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.itextpdf.io.font.constants.StandardFonts;
+import com.itextpdf.io.image.ImageDataFactory;
+import com.itextpdf.kernel.colors.DeviceRgb;
+import com.itextpdf.kernel.font.PdfFont;
+import com.itextpdf.kernel.font.PdfFontFactory;
+import com.itextpdf.kernel.geom.AffineTransform;
+import com.itextpdf.kernel.geom.Rectangle;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfPage;
+import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.kernel.pdf.PdfStream;
+import com.itextpdf.kernel.pdf.PdfWriter;
+import com.itextpdf.kernel.pdf.StampingProperties;
+import com.itextpdf.kernel.pdf.canvas.PdfCanvas;
+import com.itextpdf.kernel.pdf.extgstate.PdfExtGState;
+import com.itextpdf.kernel.pdf.xobject.PdfFormXObject;
+import com.itextpdf.kernel.pdf.xobject.PdfImageXObject;
+
+/**
+ * Stamps a text or image watermark onto every page of PDF files.
+ *
+ * The watermark, including its opacity, is drawn once into a single Form XObject per document.
+ * Each page only gets a short content stream placing that XObject, and is flushed when done,
+ * so the output grows by one XObject rather than one copy per page. The existing page content is
+ * wrapped in its own graphics state, so a transform it leaves behind does not move the stamp,
+ * and the stamp is turned with the page /Rotate so it reads upright in a viewer.
+ *
+ * @author <a href="mailto://dan@danbecker.info">Dan Becker</a>
+ */
+public class Watermark {
+    /** LOGGER */
+    public static final Logger LOGGER = LoggerFactory.getLogger(Watermark.class);
+
+    public static final float FONT_SIZE = 72f;
+    /** Text watermarks are set at an angle, as in PdfCL.getWatermarkedImage */
+    public static final double TEXT_ANGLE = Math.PI / 6;
+    /** The watermark fits within this fraction of the page crop box. */
+    public static final float PAGE_FRACTION = 0.8f;
+    public static final float DEFAULT_OPACITY = 0.3f;
+    private static final byte[] RESTORE_STATE = "Q\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    private final String watermark;
+    private final String colorString;
+    private final float opacity;
+    private final boolean appendMode;
+    private final boolean image;
+
+    /**
+     * @param watermark text, or the path of an image file
+     * @param colorString comma separated RGB or ARGB for text, null for gray
+     * @param opacity 0..1
+     * @param appendMode write the stamps as an incremental update
+     * @throws IOException if the watermark file cannot be sniffed
+     */
+    public Watermark(String watermark, String colorString, float opacity, boolean appendMode) throws IOException {
+        this.watermark = watermark;
+        this.colorString = colorString;
+        this.opacity = opacity;
+        this.appendMode = appendMode;
+        this.image = isImage(watermark);
+    }
+
+    /**
+     * Watermarks the PDF files found by the finder. A file which cannot be stamped is logged and skipped.
+     * @param srcs files or directories of PDF files
+     * @param dest output file for a single source ending in ".pdf", otherwise an output directory
+     * @param number opacity 0..1, default 0.3
+     * @throws IOException
+     */
+    public static void watermark(String[] srcs, String dest, String watermark, String colorString, String number,
+        boolean appendMode, SourceFinder finder) throws IOException {
+        if (null == watermark || watermark.length() < 1) {
+            throw new IllegalArgumentException("watermark text or image is required");
+        }
+        float opacity = null == number ? DEFAULT_OPACITY : Float.parseFloat(number);
+        Watermark stamper = new Watermark(watermark, colorString, opacity, appendMode);
+        boolean singleFile = 1 == srcs.length && new File(srcs[0]).isFile() && dest.toLowerCase().endsWith(".pdf");
+        if (singleFile) {
+            PdfCL.mkdirs(new File(dest).getAbsolutePath());
+        } else {
+            new File(dest).mkdirs();
+        }
+        finder.forEach(srcs, (root, srcFile) -> {
+            File destFile = singleFile ? new File(dest) : SourceFinder.outputFile(root, srcFile, dest, "-w.pdf");
+            try {
+                stamper.stamp(srcFile.toFile(), destFile);
+            } catch (IOException | RuntimeException e) {
+                LOGGER.error("Source file=" + srcFile + " cannot be watermarked e=" + e);
+            }
+        });
+    }
+
+    /** Stamps every page of one file. On failure no partial dest file is left behind. */
+    public void stamp(File srcFile, File destFile) throws IOException {
+        StampingProperties properties = new StampingProperties();
+        if (appendMode) {
+            properties.useAppendMode();
+        }
+        try (Metrics.Timer timer = Metrics.time("watermark.document")) {
+            timer.bytes(PdfCL.read(srcFile.getPath()));
+            int numPages;
+            // The reader and writer are resources too, as a PdfDocument which fails to open does not close them.
+            try (PdfReader reader = new PdfReader(srcFile); PdfWriter writer = new PdfWriter(destFile);
+                PdfDocument pdfDoc = new PdfDocument(reader, writer, properties)) {
+                PdfFormXObject stamp = createStamp(pdfDoc);
+                double angle = image ? 0 : TEXT_ANGLE;
+                numPages = pdfDoc.getNumberOfPages();
+                for (int i = 1; i <= numPages; i++) {
+                    PdfPage page = pdfDoc.getPage(i);
+                    new PdfCanvas(page.newContentStreamBefore(), page.getResources(), pdfDoc).saveState().release();
+                    PdfStream after = page.newContentStreamAfter();
+                    // PdfCanvas balances q and Q within one canvas, so the Q closing the page content is written directly.
+                    after.getOutputStream().writeBytes(RESTORE_STATE);
+                    PdfCanvas canvas = new PdfCanvas(after, page.getResources(), pdfDoc);
+                    canvas.saveState();
+                    // Viewers turn the page clockwise by /Rotate, so turn the stamp back by as much.
+                    double pageAngle = angle + Math.toRadians(page.getRotation());
+                    canvas.concatMatrix(placement(stamp.getBBox().toRectangle(), page.getCropBox(), pageAngle));
+                    canvas.addXObject(stamp, 0, 0);
+                    canvas.restoreState();
+                    canvas.release();
+                    page.flush();
+                }
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(destFile.toPath());
+                throw e;
+            }
+            timer.bytes(PdfCL.written(destFile.getPath()));
+            LOGGER.info("\"" + destFile + "\" watermarked pages=" + numPages);
+        }
+    }
+
+    /** States if the watermark names a readable image file rather than text. */
+    protected static boolean isImage(String watermark) throws IOException {
+        Path path = Paths.get(watermark);
+        return path.toFile().isFile() && SourceFinder.ITEXT_IMAGE_TYPES.contains(SourceFinder.imageType(path));
+    }
+
+    /** Draws the watermark into a Form XObject sized to the text or image. */
+    protected PdfFormXObject createStamp(PdfDocument pdfDoc) throws IOException {
+        PdfExtGState gState = new PdfExtGState().setFillOpacity(opacity).setStrokeOpacity(opacity);
+        PdfFormXObject stamp;
+        if (image) {
+            PdfImageXObject image = new PdfImageXObject(ImageDataFactory.create(watermark));
+            stamp = new PdfFormXObject(new Rectangle(image.getWidth(), image.getHeight()));
+            PdfCanvas canvas = new PdfCanvas(stamp, pdfDoc);
+            canvas.setExtGState(gState);
+            canvas.addXObject(image, new Rectangle(image.getWidth(), image.getHeight()));
+            canvas.release();
+        } else {
+            PdfFont font = PdfFontFactory.createFont(StandardFonts.HELVETICA_BOLD);
+            float width = font.getWidth(watermark, FONT_SIZE);
+            stamp = new PdfFormXObject(new Rectangle(width, FONT_SIZE * 1.2f));
+            PdfCanvas canvas = new PdfCanvas(stamp, pdfDoc);
+            canvas.setExtGState(gState);
+            if (null != colorString) {
+                int argb = Image.argbInt(colorString);
+                canvas.setFillColor(new DeviceRgb((argb >> 16) & 0xFF, (argb >> 8) & 0xFF, argb & 0xFF));
+            } else {
+                canvas.setFillColorGray(0.5f);
+            }
+            canvas.beginText().setFontAndSize(font, FONT_SIZE).moveText(0, FONT_SIZE * 0.25f).showText(watermark).endText();
+            canvas.release();
+        }
+        return stamp;
+    }
+
+    /** Centers the stamp on the page at the given angle, shrunk to fit within PAGE_FRACTION of the page. */
+    protected static AffineTransform placement(Rectangle stamp, Rectangle page, double angle) {
+        double cos = Math.abs(Math.cos(angle));
+        double sin = Math.abs(Math.sin(angle));
+        double rotatedWidth = stamp.getWidth() * cos + stamp.getHeight() * sin;
+        double rotatedHeight = stamp.getWidth() * sin + stamp.getHeight() * cos;
+        double scale = Math.min(1.0, Math.min(PAGE_FRACTION * page.getWidth() / rotatedWidth, PAGE_FRACTION * page.getHeight() / rotatedHeight));
+        AffineTransform transform = AffineTransform.getTranslateInstance(page.getX() + page.getWidth() / 2, page.getY() + page.getHeight() / 2);
+        transform.rotate(angle);
+        transform.scale(scale, scale);
+        transform.translate(-stamp.getWidth() / 2, -stamp.getHeight() / 2);
+        return transform;
+    }
+}
@@ -0,0 +1,99 @@
+package info.danbecker.pdfcl;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Characters;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * Compacts XML, such as XMP metadata streams, to a single line.
+ * 
+ * Streams the events through StAX without building a DOM. 
+ * The factories are looked up once per thread, since the service loader lookup is expensive.
+ * 
+ * @author <a href="mailto://dan@danbecker.info">Dan Becker</a>
+ */
+public class XmlCompactor {
+    private static final ThreadLocal<XMLInputFactory> INPUT_FACTORY = new ThreadLocal<XMLInputFactory>() {
+        @Override
+        protected XMLInputFactory initialValue() {
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.IS_VALIDATING, false);
+            factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+            return factory;
+        }
+    };
+
+    private static final ThreadLocal<XMLOutputFactory> OUTPUT_FACTORY = new ThreadLocal<XMLOutputFactory>() {
+        @Override
+        protected XMLOutputFactory initialValue() {
+            return XMLOutputFactory.newInstance();
+        }
+    };
+
+    private static final ThreadLocal<XMLEventFactory> EVENT_FACTORY = new ThreadLocal<XMLEventFactory>() {
+        @Override
+        protected XMLEventFactory initialValue() {
+            return XMLEventFactory.newInstance();
+        }
+    };
+
+    /**
+     * Returns the XML without declaration, line breaks, or whitespace before tags.
+     * @param bytes encoded XML document
+     * @throws XMLStreamException if the XML is not well formed
+     */
+    public static String compact( byte[] bytes ) throws XMLStreamException {
+        StringWriter writer = new StringWriter( bytes.length );
+        XMLEventReader reader = INPUT_FACTORY.get().createXMLEventReader( new ByteArrayInputStream( bytes ));
+        XMLEventWriter out = OUTPUT_FACTORY.get().createXMLEventWriter( writer );
+        XMLEventFactory events = EVENT_FACTORY.get();
+        try {
+            while ( reader.hasNext() ) {
+                XMLEvent event = reader.nextEvent();
+                switch ( event.getEventType() ) {
+                case XMLEvent.START_DOCUMENT:
+                case XMLEvent.END_DOCUMENT:
+                case XMLEvent.DTD:
+                    break;
+                case XMLEvent.CHARACTERS:
+                case XMLEvent.SPACE: {
+                    Characters characters = event.asCharacters();
+                    if ( characters.isWhiteSpace() || characters.isIgnorableWhiteSpace() ) {
+                        break;
+                    }
+                    String text = trimTrailing( characters.getData().replace( "\n", "" ).replace( "\r", "" ));
+                    out.add( characters.isCData() ? 
+                        events.createCData( text ) : events.createCharacters( text ));
+                    break;
+                }
+                default:
+                    out.add( event );
+                }
+            }
+            out.flush();
+        } finally {
+            reader.close();
+            out.close();
+        }
+        return writer.toString();
+    }
+
+    /** Whitespace before the next tag is dropped. */
+    private static String trimTrailing( String text ) {
+        int end = text.length();
+        while ( end > 0 && Character.isWhitespace( text.charAt( end - 1 ))) {
+            end--;
+        }
+        return text.substring( 0, end );
+    }
+}
@@ -0,0 +1,92 @@
+package info.danbecker.pdfcl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Tests LongHashSet against java.util.HashSet.
+ *
+ * @author <a href="mailto://dan@danbecker.info">Dan Becker</a>
+ */
+public class LongHashSetTest {
+
+    @Test
+    public void testAddContains() {
+        LongHashSet set = new LongHashSet();
+        assertTrue(set.add(LongHashSet.key(1, 0)));
+        assertFalse(set.add(LongHashSet.key(1, 0)));
+        assertTrue(set.contains(LongHashSet.key(1, 0)));
+        assertFalse(set.contains(LongHashSet.key(2, 0)));
+        assertEquals(1, set.size());
+    }
+
+    @Test
+    public void testKeyGeneration() {
+        // The same object number with another generation is another object.
+        assertNotEquals(LongHashSet.key(5, 0), LongHashSet.key(5, 1));
+        assertNotEquals(LongHashSet.key(1, 0), LongHashSet.key(0, 1));
+        LongHashSet set = new LongHashSet();
+        set.add(LongHashSet.key(5, 0));
+        assertFalse(set.contains(LongHashSet.key(5, 1)));
+        assertTrue(set.add(LongHashSet.key(5, 65535)));
+        assertEquals(2, set.size());
+    }
+
+    @Test
+    public void testEmptyKey() {
+        LongHashSet set = new LongHashSet();
+        assertFalse(set.contains(0L));
+        assertTrue(set.add(0L));
+        assertFalse(set.add(0L));
+        assertTrue(set.contains(0L));
+        assertEquals(1, set.size());
+    }
+
+    @Test
+    public void testRehash() {
+        LongHashSet set = new LongHashSet(4);
+        for (int objNr = 1; objNr <= 100000; objNr++) {
+            assertTrue(set.add(LongHashSet.key(objNr, 0)));
+        }
+        assertEquals(100000, set.size());
+        for (int objNr = 1; objNr <= 100000; objNr++) {
+            assertTrue(set.contains(LongHashSet.key(objNr, 0)));
+        }
+        assertFalse(set.contains(LongHashSet.key(100001, 0)));
+    }
+
+    @Test
+    public void testRandomAgainstHashSet() {
+        Random random = new Random(0x5EEDL);
+        LongHashSet set = new LongHashSet();
+        Set<Long> expected = new HashSet<>();
+        for (int i = 0; i < 20000; i++) {
+            long value = random.nextInt(5000) - 100; // includes 0 and negatives
+            assertEquals(expected.add(value), set.add(value));
+        }
+        assertEquals(expected.size(), set.size());
+        for (long value = -200; value < 5100; value++) {
+            assertEquals(expected.contains(value), set.contains(value));
+        }
+    }
+
+    @Test
+    public void testClear() {
+        LongHashSet set = new LongHashSet();
+        set.add(0L);
+        set.add(LongHashSet.key(7, 0));
+        set.clear();
+        assertEquals(0, set.size());
+        assertFalse(set.contains(0L));
+        assertFalse(set.contains(LongHashSet.key(7, 0)));
+        assertTrue(set.add(LongHashSet.key(7, 0)));
+    }
+}
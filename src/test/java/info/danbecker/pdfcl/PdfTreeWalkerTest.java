@@ -0,0 +1,88 @@
+package info.danbecker.pdfcl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.itextpdf.kernel.pdf.PdfArray;
+import com.itextpdf.kernel.pdf.PdfDictionary;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfName;
+import com.itextpdf.kernel.pdf.PdfNumber;
+import com.itextpdf.kernel.pdf.PdfWriter;
+
+/**
+ * Tests the order and numbering PdfTreeWalker reports objects in.
+ *
+ * @author <a href="mailto://dan@danbecker.info">Dan Becker</a>
+ */
+public class PdfTreeWalkerTest {
+
+    @Test
+    public void testDictionaryNumbering() {
+        try (PdfDocument pdfDoc = new PdfDocument(new PdfWriter(new ByteArrayOutputStream()))) {
+            pdfDoc.addNewPage();
+            PdfDictionary shared = new PdfDictionary();
+            shared.makeIndirect(pdfDoc);
+            PdfDictionary root = new PdfDictionary();
+            root.put(new PdfName("A"), shared);
+            root.put(new PdfName("B"), shared);
+            root.put(new PdfName("C"), new PdfNumber(1));
+
+            // Entries count from 1 over those visited, so the second reference to shared takes no number.
+            List<Integer> elements = new ArrayList<>();
+            new PdfTreeWalker().walk(PdfName.Catalog, root, (element, pdfName, pdfObject, level) -> {
+                if (1 == level) {
+                    elements.add(element);
+                }
+                return PdfTreeVisitor.Result.CONTINUE;
+            });
+            assertEquals(2, elements.size());
+            assertEquals(Integer.valueOf(1), elements.get(0));
+            assertEquals(Integer.valueOf(2), elements.get(1));
+        }
+    }
+
+    @Test
+    public void testArrayIndexes() {
+        PdfArray array = new PdfArray();
+        array.add(new PdfNumber(10));
+        array.add(new PdfNumber(20));
+        List<Integer> elements = new ArrayList<>();
+        new PdfTreeWalker().walk(PdfName.Obj, array, (element, pdfName, pdfObject, level) -> {
+            if (1 == level) {
+                elements.add(element);
+            }
+            return PdfTreeVisitor.Result.CONTINUE;
+        });
+        assertEquals(2, elements.size());
+        assertEquals(Integer.valueOf(0), elements.get(0));
+        assertEquals(Integer.valueOf(1), elements.get(1));
+    }
+
+    @Test
+    public void testCycle() {
+        try (PdfDocument pdfDoc = new PdfDocument(new PdfWriter(new ByteArrayOutputStream()))) {
+            pdfDoc.addNewPage();
+            PdfDictionary parent = new PdfDictionary();
+            parent.makeIndirect(pdfDoc);
+            PdfDictionary kid = new PdfDictionary();
+            kid.makeIndirect(pdfDoc);
+            parent.put(PdfName.Kids, new PdfArray(kid));
+            kid.put(PdfName.Parent, parent);
+            List<PdfName> names = new ArrayList<>();
+            boolean completed = new PdfTreeWalker().walk(PdfName.Pages, parent, (element, pdfName, pdfObject, level) -> {
+                names.add(pdfName);
+                return PdfTreeVisitor.Result.CONTINUE;
+            });
+            assertEquals(3, names.size());
+            assertFalse(names.contains(PdfName.Parent));
+            assertEquals(true, completed);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package info.danbecker.pdfcl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the natural order SourceFinder sorts directory files in, and the files it finds.
+ *
+ * @author <a href="mailto://dan@danbecker.info">Dan Becker</a>
+ */
+public class SourceFinderTest {
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("sourcefinder");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toArray(Path[]::new)) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Test
+    public void testNumbersByValue() {
+        assertTrue(SourceFinder.naturalCompare("img2", "img10") < 0);
+        assertTrue(SourceFinder.naturalCompare("img10", "img2") > 0);
+        assertTrue(SourceFinder.naturalCompare("page9.pdf", "page10.pdf") < 0);
+        assertTrue(SourceFinder.naturalCompare("a1b2", "a1b10") < 0);
+    }
+
+    @Test
+    public void testLeadingZeros() {
+        assertTrue(SourceFinder.naturalCompare("img002", "img10") < 0);
+        assertTrue(SourceFinder.naturalCompare("img0", "img00") != 0);
+        // Equal values differ only by their zeros, and the order stays total.
+        int compare = SourceFinder.naturalCompare("img01", "img1");
+        assertTrue(compare != 0);
+        assertEquals(-Integer.signum(compare), Integer.signum(SourceFinder.naturalCompare("img1", "img01")));
+    }
+
+    @Test
+    public void testLongNumbers() {
+        // Longer than a long, compared by length and then digits.
+        assertTrue(SourceFinder.naturalCompare("scan99999999999999999999", "scan100000000000000000000") < 0);
+    }
+
+    @Test
+    public void testCase() {
+        assertTrue(SourceFinder.naturalCompare("apple", "Banana") < 0);
+        assertTrue(SourceFinder.naturalCompare("Apple", "banana") < 0);
+        assertTrue(SourceFinder.naturalCompare("abc", "ABC") != 0);
+        assertEquals(0, SourceFinder.naturalCompare("img1.jpg", "img1.jpg"));
+    }
+
+    @Test
+    public void testPrefix() {
+        assertTrue(SourceFinder.naturalCompare("img", "img1") < 0);
+        assertTrue(SourceFinder.naturalCompare("img1", "img1a") < 0);
+        assertTrue(SourceFinder.naturalCompare("", "a") < 0);
+    }
+
+    @Test
+    public void testSort() {
+        String[] names = { "img10.png", "img2.png", "IMG3.png", "img1.png", "img01.png", "cover.png", "img20a.png", "img20.png" };
+        Arrays.sort(names, SourceFinder.NATURAL_ORDER);
+        assertArrayEquals(new String[] { "cover.png", "img01.png", "img1.png", "img2.png", "IMG3.png", "img10.png", "img20.png", "img20a.png" },
+            names);
+    }
+
+    @Test
+    public void testSniffing() throws IOException {
+        write("photo.jpg", image("jpg"));
+        write("notajpg.jpg", "not a jpeg at all".getBytes(StandardCharsets.US_ASCII));
+        write("noext", image("png"));
+        write("doc.pdf", "junk before the header %PDF-1.4\n".getBytes(StandardCharsets.US_ASCII));
+        write("junk.pdf", "no header".getBytes(StandardCharsets.US_ASCII));
+
+        assertEquals(Arrays.asList("noext", "photo.jpg"), names(new SourceFinder(SourceFinder.Content.IMAGE)));
+        assertEquals(Arrays.asList("noext", "photo.jpg"), names(new SourceFinder(SourceFinder.Content.ITEXT_IMAGE)));
+        assertEquals(Arrays.asList("doc.pdf"), names(new SourceFinder(SourceFinder.Content.PDF)));
+        assertEquals(Arrays.asList("doc.pdf", "junk.pdf", "noext", "notajpg.jpg", "photo.jpg"),
+            names(new SourceFinder(SourceFinder.Content.ANY)));
+    }
+
+    @Test
+    public void testNamedFile() throws IOException {
+        // Files named directly are passed on without sniffing.
+        Path file = write("notajpg.jpg", "not a jpeg at all".getBytes(StandardCharsets.US_ASCII));
+        assertEquals(Arrays.asList(file), new SourceFinder(SourceFinder.Content.IMAGE).list(new String[] { file.toString() }));
+    }
+
+    @Test
+    public void testGlob() throws IOException {
+        write("photo.jpg", image("jpg"));
+        write("notajpg.jpg", "not a jpeg at all".getBytes(StandardCharsets.US_ASCII));
+        write("image.png", image("png"));
+
+        assertEquals(Arrays.asList("notajpg.jpg", "photo.jpg"), names(new SourceFinder(SourceFinder.Content.ANY).glob("*.jpg")));
+        assertEquals(Arrays.asList("photo.jpg"), names(new SourceFinder(SourceFinder.Content.IMAGE).glob("*.jpg")));
+        assertEquals(Arrays.asList("image.png", "photo.jpg"), names(new SourceFinder(SourceFinder.Content.IMAGE).glob("*.{jpg,png}")));
+    }
+
+    @Test
+    public void testRecursionOrder() throws IOException {
+        write("b.pdf", new byte[0]);
+        write("a10.pdf", new byte[0]);
+        write("a9.pdf", new byte[0]);
+        write("sub10/x.pdf", new byte[0]);
+        write("sub2/z.pdf", new byte[0]);
+        write("sub2/y.pdf", new byte[0]);
+
+        assertEquals(Arrays.asList("a9.pdf", "a10.pdf", "b.pdf"), names(new SourceFinder(SourceFinder.Content.ANY)));
+        // Subdirectories are listed in place, in the natural order of their names.
+        assertEquals(Arrays.asList("a9.pdf", "a10.pdf", "b.pdf", "sub2/y.pdf", "sub2/z.pdf", "sub10/x.pdf"),
+            names(new SourceFinder(SourceFinder.Content.ANY).recursive(true)));
+    }
+
+    @Test
+    public void testLinkLoop() throws IOException {
+        write("sub/a.pdf", new byte[0]);
+        try {
+            Files.createSymbolicLink(dir.resolve("sub/loop"), dir);
+        } catch (IOException | UnsupportedOperationException e) {
+            return; // no links on this file system
+        }
+        assertEquals(Arrays.asList("sub/a.pdf"), names(new SourceFinder(SourceFinder.Content.ANY).recursive(true)));
+    }
+
+    private Path write(String name, byte[] bytes) throws IOException {
+        Path file = dir.resolve(name);
+        Files.createDirectories(file.getParent());
+        return Files.write(file, bytes);
+    }
+
+    private static byte[] image(String format) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(4, 4, BufferedImage.TYPE_INT_RGB), format, out);
+        return out.toByteArray();
+    }
+
+    /** Lists the files found in dir, relative to it with / separators. */
+    private List<String> names(SourceFinder finder) throws IOException {
+        List<String> names = new ArrayList<>();
+        for (Path file : finder.list(new String[] { dir.toString() })) {
+            names.add(dir.relativize(file).toString().replace('\\', '/'));
+        }
+        return names;
+    }
+}
@@ -0,0 +1,207 @@
+package info.danbecker.pdfcl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that indexes read back as written, and that merges, tiered merges, and updates keep every posting.
+ *
+ * @author <a href="mailto://dan@danbecker.info">Dan Becker</a>
+ */
+public class TextIndexTest {
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("textindex");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toArray(Path[]::new)) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /** Writes a segment of one file with the given page texts, numbered from 1. */
+    private Path segment(String file, String... pages) throws IOException {
+        Map<String,List<Integer>> terms = new TreeMap<>();
+        for (int page = 1; page <= pages.length; page++) {
+            for (String term : TextIndex.terms(pages[page - 1])) {
+                terms.computeIfAbsent(term, t -> new ArrayList<>()).add(page);
+            }
+        }
+        List<byte[]> sorted = new ArrayList<>();
+        for (String term : terms.keySet()) {
+            sorted.add(term.getBytes(StandardCharsets.UTF_8));
+        }
+        Collections.sort(sorted, TextIndex.TERM_ORDER);
+        Path segment = dir.resolve(file + ".seg");
+        try (TextIndex.Writer writer = new TextIndex.Writer(segment)) {
+            writer.addFile(file);
+            for (byte[] term : sorted) {
+                writer.addTerm(term);
+                for (int page : terms.get(new String(term, StandardCharsets.UTF_8))) {
+                    writer.addPosting(0, page);
+                }
+            }
+            writer.finish();
+        }
+        return segment;
+    }
+
+    private static List<String> files(TextIndex index) {
+        List<String> files = new ArrayList<>();
+        for (int i = 0; i < index.getFileCount(); i++) {
+            files.add(index.file(i));
+        }
+        return files;
+    }
+
+    private List<String> temps() throws IOException {
+        List<String> temps = new ArrayList<>();
+        try (Stream<Path> paths = Files.list(dir)) {
+            paths.filter(path -> path.toString().endsWith(".tmp")).forEach(path -> temps.add(path.getFileName().toString()));
+        }
+        return temps;
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        Path path = dir.resolve(TextIndex.FILE_NAME);
+        try (TextIndex.Writer writer = new TextIndex.Writer(path)) {
+            assertEquals(0, writer.addFile("a.pdf"));
+            assertEquals(1, writer.addFile("b.pdf"));
+            writer.addTerm("alpha".getBytes(StandardCharsets.UTF_8));
+            writer.addPosting(0, 1);
+            writer.addPosting(0, 300);
+            writer.addPosting(1, 2);
+            writer.addTerm("beta".getBytes(StandardCharsets.UTF_8));
+            writer.addPosting(1, 2);
+            writer.addTerm("\u00e9t\u00e9".getBytes(StandardCharsets.UTF_8));
+            writer.addPosting(1, 70000);
+            writer.finish();
+        }
+        assertEquals(Collections.emptyList(), temps());
+        try (TextIndex index = new TextIndex(path)) {
+            assertEquals(Arrays.asList("a.pdf", "b.pdf"), files(index));
+            assertEquals(3, index.getTermCount());
+            int alpha = index.find("alpha".getBytes(StandardCharsets.UTF_8));
+            assertEquals(0, alpha);
+            assertEquals(3, index.count(alpha));
+            assertArrayEquals(new long[] { TextIndex.posting(0, 1), TextIndex.posting(0, 300), TextIndex.posting(1, 2) },
+                index.postings(alpha));
+            assertEquals(-1, index.find("gamma".getBytes(StandardCharsets.UTF_8)));
+            assertArrayEquals(new long[] { TextIndex.posting(1, 2) }, index.query("Alpha, BETA"));
+            assertArrayEquals(new long[] { TextIndex.posting(1, 70000) }, index.query("\u00c9T\u00c9"));
+            assertArrayEquals(new long[0], index.query("alpha gamma"));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTermOrder() throws IOException {
+        try (TextIndex.Writer writer = new TextIndex.Writer(dir.resolve(TextIndex.FILE_NAME))) {
+            writer.addFile("a.pdf");
+            writer.addTerm("beta".getBytes(StandardCharsets.UTF_8));
+            writer.addPosting(0, 1);
+            writer.addTerm("alpha".getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testCloseWithoutFinish() throws IOException {
+        Path path = dir.resolve(TextIndex.FILE_NAME);
+        TextIndex.merge(Collections.singletonList(segment("a.pdf", "kept text")), path);
+        byte[] before = Files.readAllBytes(path);
+        try (TextIndex.Writer writer = new TextIndex.Writer(path)) {
+            writer.addFile("b.pdf");
+            writer.addTerm("lost".getBytes(StandardCharsets.UTF_8));
+            writer.addPosting(0, 1);
+        }
+        assertArrayEquals(before, Files.readAllBytes(path));
+        assertEquals(Collections.emptyList(), temps());
+    }
+
+    @Test
+    public void testMerge() throws IOException {
+        List<Path> segments = Arrays.asList(
+            segment("a.pdf", "red green", "blue"),
+            segment("b.pdf", "green"),
+            segment("c.pdf", "", "blue green"));
+        Path path = dir.resolve(TextIndex.FILE_NAME);
+        TextIndex.merge(segments, path);
+        try (TextIndex index = new TextIndex(path)) {
+            assertEquals(Arrays.asList("a.pdf", "b.pdf", "c.pdf"), files(index));
+            assertEquals(3, index.getTermCount());
+            assertArrayEquals(new long[] { TextIndex.posting(0, 1), TextIndex.posting(1, 1), TextIndex.posting(2, 2) },
+                index.query("green"));
+            assertArrayEquals(new long[] { TextIndex.posting(0, 2), TextIndex.posting(2, 2) }, index.query("blue"));
+            assertArrayEquals(new long[] { TextIndex.posting(2, 2) }, index.query("blue green"));
+        }
+    }
+
+    @Test
+    public void testTieredMerge() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            segments.add(segment("f" + i + ".pdf", "common file" + i, "page" + (i % 3) + " common"));
+        }
+        Path direct = dir.resolve("direct.pcx");
+        Path tiered = dir.resolve("tiered.pcx");
+        TextIndex.merge(null, null, segments, direct, segments.size());
+        TextIndex.merge(null, null, segments, tiered, 3);
+        assertArrayEquals(Files.readAllBytes(direct), Files.readAllBytes(tiered));
+        assertEquals(Collections.emptyList(), temps());
+        try (TextIndex index = new TextIndex(tiered)) {
+            assertEquals(10, index.getFileCount());
+            assertEquals("f9.pdf", index.file(9));
+            assertEquals(20, index.postings(index.find("common".getBytes(StandardCharsets.UTF_8))).length);
+            assertArrayEquals(new long[] { TextIndex.posting(1, 2), TextIndex.posting(4, 2), TextIndex.posting(7, 2) },
+                index.query("page1"));
+        }
+    }
+
+    @Test
+    public void testUpdate() throws IOException {
+        Path path = dir.resolve(TextIndex.FILE_NAME);
+        TextIndex.merge(Arrays.asList(
+            segment("a.pdf", "apple shared"),
+            segment("b.pdf", "banana shared"),
+            segment("c.pdf", "cherry shared")), path);
+        // b.pdf changed, c.pdf is gone, and d.pdf is new.
+        Set<String> keep = new HashSet<>(Collections.singletonList("a.pdf"));
+        TextIndex.merge(path, keep::contains, Arrays.asList(segment("b.pdf", "", "blueberry shared"), segment("d.pdf", "date")), path);
+        assertEquals(Collections.emptyList(), temps());
+        try (TextIndex index = new TextIndex(path)) {
+            assertEquals(Arrays.asList("a.pdf", "b.pdf", "d.pdf"), files(index));
+            assertEquals(-1, index.find("banana".getBytes(StandardCharsets.UTF_8)));
+            assertEquals(-1, index.find("cherry".getBytes(StandardCharsets.UTF_8)));
+            assertArrayEquals(new long[] { TextIndex.posting(0, 1), TextIndex.posting(1, 2) }, index.query("shared"));
+            assertArrayEquals(new long[] { TextIndex.posting(1, 2) }, index.query("blueberry"));
+            assertArrayEquals(new long[] { TextIndex.posting(2, 1) }, index.query("date"));
+            assertTrue(index.toString().contains("files=3"));
+        }
+    }
+}